@@ -4,9 +4,11 @@ import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @MapperScan("com.hmdp.mapper")
 @EnableAspectJAutoProxy(exposeProxy = true)
+@EnableScheduling
 
 @SpringBootApplication
 public class HmDianPingApplication {
@@ -0,0 +1,27 @@
+package com.hmdp.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.concurrent.Executors;
+
+@Configuration
+public class RedisListenerConfig {
+
+    /**
+     * 创建Redis发布订阅的监听容器，然后交给IOC管理
+     * 使用单线程处理消息，保证同一个节点按照Redis发布的顺序处理消息（例如先售罄、后补库存）
+     *
+     * @param connectionFactory
+     * @return
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.setTaskExecutor(Executors.newSingleThreadExecutor());
+        return container;
+    }
+}
@@ -1,6 +1,7 @@
 package com.hmdp.config;
 
 
+import cn.hutool.core.util.StrUtil;
 import org.redisson.Redisson;
 import org.redisson.api.RedissonClient;
 import org.redisson.config.Config;
@@ -15,7 +16,7 @@ public class RedissonConfig {
     private String host;
     @Value("${spring.redis.port}")
     private String port;
-    @Value("${spring.redis.password}")
+    @Value("${spring.redis.password:}")
     private String password;
 
     /**
@@ -28,8 +29,9 @@ public class RedissonConfig {
         // 获取Redisson配置对象
         Config config = new Config();
         // 添加redis地址，这里添加的是单节点地址，也可以通过 config.userClusterServers()添加集群地址
+        // 没有配置密码时不设置密码（例如压测使用的内嵌Redis）
         config.useSingleServer().setAddress("redis://" + this.host + ":" + this.port)
-                .setPassword(this.password);
+                .setPassword(StrUtil.isBlank(this.password) ? null : this.password);
         // 获取RedisClient对象，并交给IOC进行管理
         return Redisson.create(config);
     }
@@ -0,0 +1,88 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.CacheWarmer;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.IdBloomFilters;
+import com.hmdp.utils.RebuildScheduler;
+import com.hmdp.utils.SingleFlight;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 缓存统计
+ * </p>
+ */
+@RestController
+@Api(tags = "缓存相关接口")
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private SingleFlight singleFlight;
+
+    @Resource
+    private IdBloomFilters idBloomFilters;
+
+    @Resource
+    private RebuildScheduler rebuildScheduler;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheWarmer cacheWarmer;
+
+    @ApiOperation("查询当前节点缓存未命中时的加载次数、合并次数")
+    @GetMapping("/single-flight")
+    public Result querySingleFlightStats() {
+        return Result.ok(singleFlight.stats());
+    }
+
+    @ApiOperation("查询当前节点缓存重建的队列长度、合并和丢弃的任务数量、重建耗时")
+    @GetMapping("/rebuild")
+    public Result queryRebuildStats() {
+        return Result.ok(rebuildScheduler.stats());
+    }
+
+    @ApiOperation("查询当前节点访问次数最多的热点key")
+    @GetMapping("/hot-keys")
+    public Result queryHotKeys(@RequestParam(value = "limit", defaultValue = "20") Integer limit) {
+        if (!hotKeyDetector.isEnabled()) {
+            return Result.fail("未启用热点key探测");
+        }
+        return Result.ok(hotKeyDetector.topK(limit));
+    }
+
+    @ApiOperation("查询当前节点启动预热的状态和进度")
+    @GetMapping("/warm-up")
+    public Result queryWarmUpStats() {
+        return Result.ok(cacheWarmer.stats());
+    }
+
+    @ApiOperation("查询当前节点布隆过滤器的大小、已添加的id数量和拦截的请求数量")
+    @GetMapping("/bloom")
+    public Result queryBloomStats() {
+        return Result.ok(idBloomFilters.stats());
+    }
+
+    @ApiOperation("通知所有节点重建布隆过滤器：shop、blog")
+    @PostMapping("/bloom/{name}/rebuild")
+    public Result rebuildBloom(@PathVariable("name") String name) {
+        try {
+            idBloomFilters.publishRebuild(name);
+        } catch (IllegalArgumentException e) {
+            return Result.fail(e.getMessage());
+        }
+        return Result.ok();
+    }
+}
@@ -10,6 +10,7 @@ import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.List;
 
 /**
  * <p>
@@ -37,6 +38,31 @@ public class ShopController {
         return shopService.queryById(id);
     }
 
+    /**
+     * 查询商铺的部分字段
+     * @param id 商铺id
+     * @param fields 字段，多个字段以','隔开，例如 sold,comments,score
+     * @return 只包含指定字段的商铺数据
+     */
+    @GetMapping("/{id}/fields")
+    public Result queryShopFields(@PathVariable("id") Long id, @RequestParam("fields") List<String> fields) {
+        return shopService.queryShopFields(id, fields);
+    }
+
+    /**
+     * 增加商铺的计数字段
+     * @param id 商铺id
+     * @param field sold、comments、score
+     * @param delta 增量，可以为负数
+     * @return 无
+     */
+    @PutMapping("/{id}/counter")
+    public Result incrementShopCounter(@PathVariable("id") Long id,
+                                       @RequestParam("field") String field,
+                                       @RequestParam(value = "delta", defaultValue = "1") Integer delta) {
+        return shopService.incrementShopCounter(id, field, delta);
+    }
+
     /**
      * 新增商铺信息
      * @param shop 商铺数据
@@ -44,10 +70,7 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -73,12 +96,7 @@ public class ShopController {
             @RequestParam("typeId") Integer typeId,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByType(typeId, current);
     }
 
     /**
@@ -50,6 +50,37 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 补充秒杀券库存
+     * @param voucherId 优惠券id
+     * @param amount 补充的库存数量
+     * @return 无
+     */
+    @PutMapping("seckill/{id}/stock")
+    @ApiOperation("补充秒杀券库存")
+    public Result addSeckillStock(@PathVariable("id") Long voucherId, @RequestParam("amount") Integer amount) {
+        return voucherService.addSeckillStock(voucherId, amount);
+    }
+
+    /**
+     * 修改秒杀券限流配置，不传的参数恢复为默认配置，速率小于等于0表示不限流
+     * @param voucherId 优惠券id
+     * @param rate 秒杀券每秒放行的请求数量
+     * @param burst 秒杀券令牌桶容量
+     * @param userRate 每个用户每秒放行的请求数量
+     * @param userBurst 每个用户令牌桶容量
+     * @return 无
+     */
+    @PutMapping("seckill/{id}/limit")
+    @ApiOperation("修改秒杀券限流配置")
+    public Result updateSeckillLimit(@PathVariable("id") Long voucherId,
+                                     @RequestParam(value = "rate", required = false) Double rate,
+                                     @RequestParam(value = "burst", required = false) Double burst,
+                                     @RequestParam(value = "userRate", required = false) Double userRate,
+                                     @RequestParam(value = "userBurst", required = false) Double userBurst) {
+        return voucherService.updateSeckillLimit(voucherId, rate, burst, userRate, userBurst);
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
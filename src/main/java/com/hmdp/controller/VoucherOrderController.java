@@ -5,6 +5,7 @@ import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -31,4 +32,16 @@ public class VoucherOrderController {
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    @ApiOperation("查询秒杀订单状态：QUEUED（排队中）、CREATED（已创建）、FAILED（创建失败）")
+    @GetMapping("{orderId}/status")
+    public Result queryOrderStatus(@PathVariable("orderId") Long orderId) {
+        return voucherOrderService.queryOrderStatus(orderId);
+    }
+
+    @ApiOperation("查询当前节点各个订单分区的队列长度和处理延迟")
+    @GetMapping("seckill/partitions")
+    public Result queryOrderPartitions() {
+        return Result.ok(voucherOrderService.queryOrderPartitions());
+    }
 }
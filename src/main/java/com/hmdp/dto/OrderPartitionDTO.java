@@ -0,0 +1,27 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+@Data
+public class OrderPartitionDTO {
+    /**
+     * 分区编号
+     */
+    private Integer partition;
+    /**
+     * 分区队列中等待处理的订单数量
+     */
+    private Integer queueDepth;
+    /**
+     * 分区缓冲区容量
+     */
+    private Integer queueCapacity;
+    /**
+     * 分区中最早一条未完成订单从进入消息队列到现在的时间（毫秒）
+     */
+    private Long lagMillis;
+    /**
+     * 已处理的订单数量
+     */
+    private Long processed;
+}
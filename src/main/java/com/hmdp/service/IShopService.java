@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -20,6 +22,14 @@ public interface IShopService extends IService<Shop> {
      */
     Result queryById(Long id);
 
+    /**
+     * 新增商铺信息
+     *
+     * @param shop
+     * @return 商铺id
+     */
+    Result saveShop(Shop shop);
+
     /**
      * 更新商铺信息
      *
@@ -28,5 +38,33 @@ public interface IShopService extends IService<Shop> {
      */
     Result updateShop(Shop shop);
 
+    /**
+     * 根据商铺类型分页查询商铺信息
+     *
+     * @param typeId
+     * @param current
+     * @return
+     */
+    Result queryShopByType(Integer typeId, Integer current);
+
+    /**
+     * 查询商铺的部分字段
+     *
+     * @param id
+     * @param fields
+     * @return
+     */
+    Result queryShopFields(Long id, List<String> fields);
+
+    /**
+     * 增加商铺的计数字段：销量、评论数、评分
+     *
+     * @param id
+     * @param field
+     * @param delta
+     * @return
+     */
+    Result incrementShopCounter(Long id, String field, Integer delta);
+
 //    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
 }
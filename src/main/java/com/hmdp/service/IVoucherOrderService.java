@@ -1,9 +1,13 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.OrderPartitionDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.Set;
+
 /**
  * <p>
  *  服务类
@@ -17,5 +21,17 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result seckillVoucher(Long voucherId);
 
 
-    void createVoucherOrder(VoucherOrder voucherOrder);
+    boolean createVoucherOrder(VoucherOrder voucherOrder);
+
+    Set<Long> createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    boolean createVoucherOrderUnique(VoucherOrder voucherOrder);
+
+    Set<Long> createVoucherOrdersUnique(List<VoucherOrder> voucherOrders);
+
+    Set<Long> cancelVoucherOrders(List<Long> orderIds);
+
+    Result queryOrderStatus(Long orderId);
+
+    List<OrderPartitionDTO> queryOrderPartitions();
 }
@@ -17,4 +17,8 @@ public interface IVoucherService extends IService<Voucher> {
     Result queryVoucherOfShop(Long shopId);
 
     void addSeckillVoucher(Voucher voucher);
+
+    Result addSeckillStock(Long voucherId, Integer amount);
+
+    Result updateSeckillLimit(Long voucherId, Double rate, Double burst, Double userRate, Double userBurst);
 }
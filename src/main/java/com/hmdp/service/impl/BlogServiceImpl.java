@@ -17,6 +17,8 @@ import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.IdBloomFilters;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -49,8 +51,16 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     private IUserService userService;
     @Resource
     private IFollowService followService;
+    @Resource
+    private IdBloomFilters idBloomFilters;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
     @Override
     public Result getBlogById(Long id) {
+        // 布隆过滤器判断blog一定不存在，不查询数据库
+        if (!idBloomFilters.mightContain(IdBloomFilters.BLOG, id)) {
+            return Result.fail("blog not exist");
+        }
         // 根据id查询blog
         Blog blog = getById(id);
         // 返回blog
@@ -78,6 +88,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
         Long userId = UserHolder.getUser().getId();
         String key = BLOG_LIKED_KEY + blog.getId();
+        hotKeyDetector.record(key);
         Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
         blog.setIsLike(Objects.nonNull(score));
     }
@@ -87,6 +98,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         // 判断用户是否点赞
         Long userId = UserHolder.getUser().getId();
         String key = BLOG_LIKED_KEY + id;
+        hotKeyDetector.record(key);
         // zscore key value
         Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
         boolean result;
@@ -141,6 +153,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     public Result queryBlogLikes(Long id) {
         // 查询Top5的点赞用户 zrange key 0 4
         String key = BLOG_LIKED_KEY + id;
+        hotKeyDetector.record(key);
         Set<String> top5 = stringRedisTemplate.opsForZSet().range(key, 0, 4);
         if (top5 == null || top5.isEmpty()) {
             return Result.ok(Collections.emptyList());
@@ -187,6 +200,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (!isSuccess){
             return Result.fail("笔记保存失败");
         }
+        // 通知所有节点将笔记id加入布隆过滤器
+        idBloomFilters.publishAdd(IdBloomFilters.BLOG, blog.getId());
         // 查询笔记作者的所有粉丝
         List<Follow> follows = followService.list(new LambdaQueryWrapper<Follow>()
                 .eq(Follow::getFollowUserId, userId));
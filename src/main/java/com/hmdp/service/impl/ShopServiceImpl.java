@@ -9,7 +9,9 @@ import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.IdBloomFilters;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopHashCache;
 import com.hmdp.utils.SystemConstants;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
@@ -40,7 +42,11 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
     @Resource
+    private IdBloomFilters idBloomFilters;
+    @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ShopHashCache shopHashCache;
 
     /**
      * 根据id查询商铺数据
@@ -50,6 +56,12 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      */
     @Override
     public Result queryById(Long id) {
+        // 启用Hash缓存时，按字段缓存店铺
+        if (shopHashCache.isEnabled()) {
+            Shop shop = idBloomFilters.mightContain(IdBloomFilters.SHOP, id)
+                    ? shopHashCache.get(id, this::queryShopFieldsFromDb) : null;
+            return Objects.isNull(shop) ? Result.fail("店铺不存在") : Result.ok(shop);
+        }
 //         调用解决缓存穿透的方法
         Shop shop = cacheClient.handleCachePenetration(CACHE_SHOP_KEY, id, Shop.class,
                 this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
@@ -108,6 +120,22 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
 
 
+    /**
+     * 新增店铺信息
+     *
+     * @param shop
+     * @return
+     */
+    @Override
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 通知所有节点将店铺id加入布隆过滤器
+        idBloomFilters.publishAdd(IdBloomFilters.SHOP, shop.getId());
+        // 返回店铺id
+        return Result.ok(shop.getId());
+    }
+
     /**
      * 更新店铺信息
      *
@@ -123,11 +151,101 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         //1.更新数据库
         updateById(shop);
-        //2.删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        //2.删除缓存，并通知所有节点清除本地缓存
+        cacheClient.delete(CACHE_SHOP_KEY + id);
+        //3.Hash缓存只删除变化的字段
+        if (shopHashCache.isEnabled()) {
+            shopHashCache.invalidateFields(id, ShopHashCache.nonNullFields(shop));
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 查询店铺的部分字段，启用Hash缓存时只读取需要的字段
+     *
+     * @param id
+     * @param fields
+     * @return
+     */
+    @Override
+    public Result queryShopFields(Long id, List<String> fields) {
+        if (fields == null || fields.isEmpty() || !ShopHashCache.FIELDS.containsAll(fields)) {
+            return Result.fail("字段只能是：" + StrUtil.join(",", ShopHashCache.FIELDS));
+        }
+        if (!shopHashCache.isEnabled()) {
+            return queryById(id);
+        }
+        Shop shop = idBloomFilters.mightContain(IdBloomFilters.SHOP, id)
+                ? shopHashCache.getFields(id, fields, this::queryShopFieldsFromDb) : null;
+        return Objects.isNull(shop) ? Result.fail("店铺不存在") : Result.ok(shop);
+    }
+
+    /**
+     * 增加店铺的计数字段，启用Hash缓存时原地增加缓存中的计数，否则删除缓存
+     *
+     * @param id
+     * @param field
+     * @param delta
+     * @return
+     */
+    @Override
+    @Transactional
+    public Result incrementShopCounter(Long id, String field, Integer delta) {
+        if (!ShopHashCache.COUNTER_FIELDS.contains(field)) {
+            return Result.fail("字段只能是：" + StrUtil.join(",", ShopHashCache.COUNTER_FIELDS));
+        }
+        // 1.更新数据库，字段名已校验
+        String column = StrUtil.toUnderlineCase(field);
+        boolean success = update()
+                .setSql(column + " = " + column + " + " + delta)
+                .eq("id", id)
+                .update();
+        if (!success) {
+            return Result.fail("店铺不存在");
+        }
+        // 2.更新缓存
+        cacheClient.delete(CACHE_SHOP_KEY + id);
+        if (shopHashCache.isEnabled()) {
+            shopHashCache.increment(id, field, delta);
+        }
         return Result.ok();
     }
 
+    /**
+     * 从数据库中查询店铺的指定字段
+     *
+     * @param id
+     * @param fields ShopHashCache.FIELDS 中的字段
+     * @return
+     */
+    private Shop queryShopFieldsFromDb(Long id, List<String> fields) {
+        String[] columns = fields.stream().map(StrUtil::toUnderlineCase).toArray(String[]::new);
+        return query().select(columns).eq("id", id).one();
+    }
+
+    /**
+     * 根据商铺类型分页查询商铺信息
+     * 数据库只查询当前页的id，店铺数据从缓存中批量查询，未命中的一次从数据库查询
+     *
+     * @param typeId
+     * @param current
+     * @return
+     */
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current) {
+        // 1.根据类型分页查询id
+        Page<Shop> page = query()
+                .select("id")
+                .eq("type_id", typeId)
+                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+        List<Long> ids = page.getRecords().stream().map(Shop::getId).collect(Collectors.toList());
+        // 2.批量查询店铺数据，保持分页的顺序
+        List<Shop> shops = cacheClient.getAll(CACHE_SHOP_KEY, ids, Shop.class,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Shop::getId, shop -> shop)),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        return Result.ok(shops);
+    }
+
 
 
     public void saveShopToCache(Long id,Long expireSeconds){
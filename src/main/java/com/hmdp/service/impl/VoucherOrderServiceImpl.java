@@ -1,35 +1,61 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.dto.OrderPartitionDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.OrderRingBuffer;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisIdWorker;
 import com.hmdp.utils.ReentrantLock;
+import com.hmdp.utils.SeckillClient;
+import com.hmdp.utils.SeckillPayTimeoutQueue;
+import com.hmdp.utils.SeckillSoldOutCache;
 import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
 
 
 /**
@@ -41,6 +67,7 @@ import java.util.concurrent.Executors;
  * @since 2021-12-22
  */
 
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
@@ -56,81 +83,579 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private RedissonClient redissonClient;
 
+    @Resource
+    private SeckillSoldOutCache seckillSoldOutCache;
+
+    @Resource
+    private SeckillClient seckillClient;
+
+    @Resource
+    private SeckillPayTimeoutQueue seckillPayTimeoutQueue;
+
+    /**
+     * VoucherOrderServiceImpl类的代理对象（延迟注入）
+     * 子线程通过代理对象调用事务方法，防止事务失效；启动时恢复pending-list也需要用到，所以不能等到第一次秒杀请求才获取
+     */
+    @Lazy
+    @Resource
+    private IVoucherOrderService proxy;
+
+    /**
+     * 当前节点在消费者组中的名称，每个节点必须唯一且重启后保持不变，这样重启后才能找回自己未确认的订单
+     */
+    @Value("${hmdp.seckill.consumer-name:}")
+    private String consumerName;
+
+    @Value("${server.port:8081}")
+    private String serverPort;
+
+    /**
+     * 其它消费者的消息空闲超过该时间仍未确认，则认为该消费者已宕机，由当前节点接管
+     */
+    @Value("${hmdp.seckill.claim-idle-millis:60000}")
+    private long claimIdleMillis;
+
+    /**
+     * 批量落库时每批最多处理的订单数量，小于等于1时逐单创建订单
+     */
+    @Value("${hmdp.seckill.batch-size:100}")
+    private int batchSize;
+
+    /**
+     * 批量落库时凑批的最长等待时间（毫秒）
+     */
+    @Value("${hmdp.seckill.batch-wait-millis:200}")
+    private long batchWaitMillis;
+
+    /**
+     * 订单分区（消费线程）数量
+     */
+    @Value("${hmdp.seckill.workers:4}")
+    private int workers;
+
+    /**
+     * 每个分区缓冲区最多缓存的订单数量，每条订单固定占用48字节
+     */
+    @Value("${hmdp.seckill.partition-capacity:10000}")
+    private int partitionCapacity;
+
+    /**
+     * 分区缓冲区的高水位（占总容量的比例），超过时秒杀请求在执行Lua脚本之前直接拒绝，小于等于0表示不拒绝
+     */
+    @Value("${hmdp.seckill.reject-watermark:0.9}")
+    private double rejectWatermark;
+
+    /**
+     * 订单落库方式：
+     * lock：按用户加分布式锁，先查询用户是否已下单再插入
+     * unique：不加锁也不预先查询，依赖 (user_id, voucher_id) 唯一索引，INSERT IGNORE 忽略重复订单
+     */
+    @Value("${hmdp.seckill.order-mode:lock}")
+    private String orderMode;
+
+    /**
+     * 加载 创建消费者组 的Lua脚本
+     */
+    private static final DefaultRedisScript<Long> STREAM_GROUP_SCRIPT;
+    static {
+        STREAM_GROUP_SCRIPT = new DefaultRedisScript<>();
+        STREAM_GROUP_SCRIPT.setLocation(new ClassPathResource("lua/stream-group.lua"));
+        STREAM_GROUP_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 加载 接管其它消费者超时未确认订单 的Lua脚本
+     */
+    private static final DefaultRedisScript<Long> STREAM_CLAIM_SCRIPT;
+    static {
+        STREAM_CLAIM_SCRIPT = new DefaultRedisScript<>();
+        STREAM_CLAIM_SCRIPT.setLocation(new ClassPathResource("lua/stream-claim.lua"));
+        STREAM_CLAIM_SCRIPT.setResultType(Long.class);
+    }
+
     /**
      * 当前类初始化完毕就立马执行该方法
      */
     @PostConstruct
     private void init() {
-        // 执行线程任务
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        if (StrUtil.isBlank(consumerName)) {
+            consumerName = defaultConsumerName();
+        }
+        // 创建消费者组（Stream不存在时一并创建），开启分片库存时每个分片一个消息队列
+        streamKeys = seckillClient.streamKeys();
+        for (String streamKey : streamKeys) {
+            stringRedisTemplate.execute(STREAM_GROUP_SCRIPT,
+                    Collections.singletonList(streamKey), SECKILL_ORDER_GROUP);
+        }
+        // 创建分区：每个分区由一个线程独占消费，同一个用户的订单总是落在同一个分区
+        int workerCount = Math.max(workers, 1);
+        partitions = new OrderPartition[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            partitions[i] = new OrderPartition(i);
+        }
+        // 执行线程任务：每个消息队列1个分发线程 + N个分区线程
+        seckillOrderExecutor = Executors.newFixedThreadPool(streamKeys.size() + workerCount);
+        for (int i = 0; i < streamKeys.size(); i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(i));
+        }
+        for (OrderPartition partition : partitions) {
+            seckillOrderExecutor.submit(partition);
+        }
+    }
+
+    /**
+     * 应用关闭时停止消费，未确认的订单留在pending-list中，重启后继续处理
+     */
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        seckillOrderExecutor.shutdown();
     }
 
     /**
-     * 存储订单的阻塞队列
+     * 默认消费者名称：主机名:端口
+     *
+     * @return
+     */
+    private String defaultConsumerName() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "localhost";
+        }
+        return host + ":" + serverPort;
+    }
+
+    /**
+     * 线程池：每个消息队列1个分发线程 + N个分区线程
+     */
+    private ExecutorService seckillOrderExecutor;
+
+    /**
+     * 需要消费的所有消息队列，分区缓冲区中只保存消息队列的下标
      */
-    private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
+    private List<String> streamKeys;
 
     /**
-     * 线程池
+     * 按userId哈希划分的订单分区
      */
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private OrderPartition[] partitions;
 
     /**
-     * 线程任务: 不断从阻塞队列中获取订单
+     * 消费线程是否继续运行
+     */
+    private volatile boolean running = true;
+
+    /**
+     * 线程任务: 不断从消息队列中获取订单，并按userId分发到各个分区
      */
     private class VoucherOrderHandler implements Runnable {
+
+        /**
+         * 消息队列在streamKeys中的下标
+         */
+        private final int stream;
+
+        private final String streamKey;
+
+        /**
+         * 上一次接管其它消费者订单的时间
+         */
+        private long lastClaimTime;
+
+        private VoucherOrderHandler(int stream) {
+            this.stream = stream;
+            this.streamKey = streamKeys.get(stream);
+        }
+
+        @Override
+        public void run() {
+            // 启动时先接管宕机节点遗留的订单，再处理自己pending-list中上次未确认的订单
+            claimIdlePendingOrders();
+            handlePendingList(stream);
+            while (running) {
+                try {
+                    // 1、从消息队列中获取订单 XREADGROUP GROUP g1 c1 COUNT n BLOCK 2000 STREAMS stream.orders >
+                    List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                            StreamReadOptions.empty().count(Math.max(batchSize, 1)).block(Duration.ofSeconds(2)),
+                            StreamOffset.create(streamKey, ReadOffset.lastConsumed())
+                    );
+                    if (records == null || records.isEmpty()) {
+                        // 2、没有新订单，趁空闲检查是否有需要接管的订单
+                        if (System.currentTimeMillis() - lastClaimTime >= claimIdleMillis && isAllPartitionsIdle()) {
+                            claimIdlePendingOrders();
+                            handlePendingList(stream);
+                        }
+                        continue;
+                    }
+                    // 3、分发到各个分区，由分区线程创建订单并确认消息
+                    dispatch(stream, records);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    log.error("分发订单异常", e);
+                }
+            }
+        }
+
+        /**
+         * 接管其它消费者（宕机节点）超时未确认的订单，接管后的订单进入当前消费者的pending-list
+         */
+        private void claimIdlePendingOrders() {
+            lastClaimTime = System.currentTimeMillis();
+            try {
+                Long claimed = stringRedisTemplate.execute(
+                        STREAM_CLAIM_SCRIPT,
+                        Collections.singletonList(streamKey),
+                        SECKILL_ORDER_GROUP, consumerName, String.valueOf(claimIdleMillis), "100"
+                );
+                if (claimed != null && claimed > 0) {
+                    log.info("{}接管超时未确认的订单{}条", streamKey, claimed);
+                }
+            } catch (Exception e) {
+                log.error("接管超时未确认的订单失败", e);
+            }
+        }
+    }
+
+    /**
+     * 分区线程任务：独占一个userId哈希分区，从分区缓冲区中凑批创建订单
+     * 同一个用户的订单只会被同一个线程串行处理，一人一单的校验和 lock:order:{userId} 不会在分区之间产生竞争
+     */
+    private class OrderPartition implements Runnable {
+
+        private final int index;
+
+        /**
+         * 分区缓冲区，只保存订单的基本类型字段，容量固定；缓冲区满时分发线程阻塞，未分发的订单继续留在Redis的消息队列中
+         */
+        private final OrderRingBuffer buffer = new OrderRingBuffer(Math.max(partitionCapacity, 1));
+
+        /**
+         * 正在处理的批次中最早订单的入队时间（毫秒），0表示当前没有正在处理的订单
+         */
+        private volatile long inFlightSince;
+
+        /**
+         * 已处理的订单数量
+         */
+        private final LongAdder processed = new LongAdder();
+
+        private OrderPartition(int index) {
+            this.index = index;
+        }
+
         @Override
         public void run() {
-            while (true) {
-                // 从阻塞队列中获取订单信息，并创建订单
+            int maxCount = Math.max(batchSize, 1);
+            // 批次数组只分配一次，循环复用
+            long[] batch = new long[maxCount * OrderRingBuffer.FIELDS];
+            while (running) {
+                try {
+                    // 1、等待第一条订单
+                    if (!buffer.awaitNotEmpty(1, TimeUnit.SECONDS)) {
+                        continue;
+                    }
+                    // 2、凑批：最多batchSize条，凑不满时最多等待batchWaitMillis毫秒
+                    int count = buffer.drainTo(batch, 0, maxCount);
+                    long deadline = System.currentTimeMillis() + batchWaitMillis;
+                    while (count < maxCount) {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0 || !buffer.awaitNotEmpty(remaining, TimeUnit.MILLISECONDS)) {
+                            break;
+                        }
+                        count += buffer.drainTo(batch, count, maxCount - count);
+                    }
+                    // 3、创建订单并确认消息
+                    inFlightSince = batch[OrderRingBuffer.STREAM_MILLIS];
+                    try {
+                        handleRecords(batch, count);
+                    } finally {
+                        inFlightSince = 0;
+                        processed.add(count);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    // 出现异常的订单未被确认，仍在pending-list中，等待下次恢复
+                    log.error("处理订单异常", e);
+                }
+            }
+        }
+
+        /**
+         * 处理延迟：分区中最早一条未完成订单从进入消息队列到现在的时间（毫秒）
+         *
+         * @return
+         */
+        private long lagMillis() {
+            long oldest = inFlightSince;
+            if (oldest == 0) {
+                oldest = buffer.headStreamMillis();
+            }
+            return oldest == 0 ? 0 : Math.max(System.currentTimeMillis() - oldest, 0);
+        }
+
+        private boolean isIdle() {
+            return buffer.size() == 0 && inFlightSince == 0;
+        }
+    }
+
+    /**
+     * 将订单按userId哈希分发到各个分区，分区缓冲区满时阻塞等待
+     * Stream消息id由写入时的毫秒时间戳和序号组成，例如 1735689600000-0，拆成两个long保存，确认消息时再拼接
+     *
+     * @param stream  消息队列在streamKeys中的下标
+     * @param records
+     * @throws InterruptedException
+     */
+    private void dispatch(int stream, List<MapRecord<String, Object, Object>> records) throws InterruptedException {
+        for (MapRecord<String, Object, Object> record : records) {
+            Map<Object, Object> value = record.getValue();
+            long orderId = Long.parseLong(value.get("id").toString());
+            long userId = Long.parseLong(value.get("userId").toString());
+            long voucherId = Long.parseLong(value.get("voucherId").toString());
+            RecordId recordId = record.getId();
+            OrderPartition partition = partitions[Math.floorMod(Long.hashCode(userId), partitions.length)];
+            while (!partition.buffer.offer(orderId, userId, voucherId, stream,
+                    recordId.getTimestamp(), recordId.getSequence(), 1, TimeUnit.SECONDS)) {
+                if (!running) {
+                    // 应用关闭，未分发的订单留在pending-list中
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 当前节点的订单缓冲区是否超过高水位，超过时秒杀请求在执行Lua脚本之前直接拒绝
+     * 此时新订单只能在Redis消息队列中积压，拒绝新请求可以让积压的订单尽快被处理
+     *
+     * @return
+     */
+    private boolean isOverloaded() {
+        if (rejectWatermark <= 0) {
+            return false;
+        }
+        long size = 0;
+        long capacity = 0;
+        for (OrderPartition partition : partitions) {
+            size += partition.buffer.size();
+            capacity += partition.buffer.capacity();
+        }
+        return size >= rejectWatermark * capacity;
+    }
+
+    /**
+     * 所有分区都没有排队和正在处理的订单
+     *
+     * @return
+     */
+    private boolean isAllPartitionsIdle() {
+        for (OrderPartition partition : partitions) {
+            if (!partition.isIdle()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 查询各个订单分区的队列长度和处理延迟
+     *
+     * @return
+     */
+    @Override
+    public List<OrderPartitionDTO> queryOrderPartitions() {
+        List<OrderPartitionDTO> result = new ArrayList<>(partitions.length);
+        for (OrderPartition partition : partitions) {
+            OrderPartitionDTO dto = new OrderPartitionDTO();
+            dto.setPartition(partition.index);
+            dto.setQueueDepth(partition.buffer.size());
+            dto.setQueueCapacity(partition.buffer.capacity());
+            dto.setLagMillis(partition.lagMillis());
+            dto.setProcessed(partition.processed.sum());
+            result.add(dto);
+        }
+        return result;
+    }
+
+    /**
+     * 将pending-list中已读取但未确认的订单重新分发到各个分区
+     * 同一条订单总是分发到同一个分区串行处理，即使重复分发也会被一人一单的校验过滤
+     */
+    private void handlePendingList(int stream) {
+        String streamKey = streamKeys.get(stream);
+        String lastId = "0";
+        while (running) {
+            try {
+                // 1、从pending-list中获取订单 XREADGROUP GROUP g1 c1 COUNT n STREAMS stream.orders lastId
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                        StreamReadOptions.empty().count(Math.max(batchSize, 1)),
+                        StreamOffset.create(streamKey, ReadOffset.from(lastId))
+                );
+                if (records == null || records.isEmpty()) {
+                    // pending-list中没有订单，结束循环
+                    break;
+                }
+                // 先推进游标，处理失败的订单留在pending-list中等待下次恢复，避免一条异常订单阻塞后续订单
+                lastId = records.get(records.size() - 1).getId().getValue();
+                dispatch(stream, records);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("处理pending-list订单异常", e);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 批量创建订单，成功后一次性确认整批消息；批量失败时逐单重试，只有失败的订单留在pending-list中
+     *
+     * @param batch 每条订单占 OrderRingBuffer.FIELDS 个long
+     * @param count 订单数量
+     */
+    private void handleRecords(long[] batch, int count) {
+        if (batchSize <= 1 || count == 1) {
+            for (int i = 0; i < count; i++) {
                 try {
-                    VoucherOrder voucherOrder = orderTasks.take();
-                    handleVoucherOrder(voucherOrder);
+                    handleRecord(batch, i);
                 } catch (Exception e) {
+                    // 失败的订单未被确认，仍在pending-list中，不影响同一批次的其它订单
                     log.error("处理订单异常", e);
                 }
             }
+            return;
+        }
+        List<VoucherOrder> voucherOrders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            voucherOrders.add(toVoucherOrder(batch, i));
+        }
+        Set<Long> rejectedIds;
+        try {
+            // 批量创建订单（使用代理对象调用，是为了确保事务生效）
+            rejectedIds = isUniqueOrderMode()
+                    ? proxy.createVoucherOrdersUnique(voucherOrders)
+                    : proxy.createVoucherOrders(voucherOrders);
+        } catch (Exception e) {
+            log.error("批量创建订单失败，改为逐单创建", e);
+            for (int i = 0; i < count; i++) {
+                try {
+                    handleRecord(batch, i);
+                } catch (Exception ex) {
+                    log.error("处理订单异常", ex);
+                }
+            }
+            return;
+        }
+        // 事务提交后再记录订单状态，避免回滚的订单被查询为已创建
+        List<VoucherOrder> created = new ArrayList<>(count);
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            boolean rejected = rejectedIds.contains(voucherOrder.getId());
+            seckillClient.markOrderStatus(voucherOrder.getId(),
+                    rejected ? SeckillClient.ORDER_FAILED : SeckillClient.ORDER_CREATED);
+            if (!rejected) {
+                created.add(voucherOrder);
+            }
+        }
+        // 创建成功的订单加入支付超时队列
+        seckillPayTimeoutQueue.schedule(created);
+        // XACK stream.orders g1 id1 id2 ...（同一批订单可能来自不同分片的消息队列）
+        Map<Integer, List<RecordId>> recordIdsByStream = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            int base = i * OrderRingBuffer.FIELDS;
+            recordIdsByStream.computeIfAbsent((int) batch[base + OrderRingBuffer.STREAM], k -> new ArrayList<>())
+                    .add(recordId(batch, i));
+        }
+        for (Map.Entry<Integer, List<RecordId>> entry : recordIdsByStream.entrySet()) {
+            stringRedisTemplate.opsForStream().acknowledge(streamKeys.get(entry.getKey()), SECKILL_ORDER_GROUP,
+                    entry.getValue().toArray(new RecordId[0]));
         }
     }
 
+    /**
+     * 创建订单，成功后确认消息 XACK stream.orders g1 id
+     *
+     * @param batch
+     * @param i     订单在批次中的下标
+     */
+    private void handleRecord(long[] batch, int i) {
+        handleVoucherOrder(toVoucherOrder(batch, i));
+        String streamKey = streamKeys.get((int) batch[i * OrderRingBuffer.FIELDS + OrderRingBuffer.STREAM]);
+        stringRedisTemplate.opsForStream().acknowledge(streamKey, SECKILL_ORDER_GROUP, recordId(batch, i));
+    }
+
+    private boolean isUniqueOrderMode() {
+        return "unique".equalsIgnoreCase(orderMode);
+    }
+
+    private static VoucherOrder toVoucherOrder(long[] batch, int i) {
+        int base = i * OrderRingBuffer.FIELDS;
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(batch[base + OrderRingBuffer.ORDER_ID]);
+        voucherOrder.setUserId(batch[base + OrderRingBuffer.USER_ID]);
+        voucherOrder.setVoucherId(batch[base + OrderRingBuffer.VOUCHER_ID]);
+        return voucherOrder;
+    }
+
+    private static RecordId recordId(long[] batch, int i) {
+        int base = i * OrderRingBuffer.FIELDS;
+        return RecordId.of(batch[base + OrderRingBuffer.STREAM_MILLIS], batch[base + OrderRingBuffer.STREAM_SEQ]);
+    }
+
     /**
      * 创建订单
      *
      * @param voucherOrder
      */
     private void handleVoucherOrder(VoucherOrder voucherOrder) {
+        if (isUniqueOrderMode()) {
+            // 唯一索引保证一人一单，同一个用户的订单又总是由同一个分区串行处理，不需要加锁
+            afterVoucherOrder(voucherOrder, proxy.createVoucherOrderUnique(voucherOrder));
+            return;
+        }
         Long userId = voucherOrder.getUserId();
         RLock lock = redissonClient.getLock(RedisConstants.LOCK_ORDER_KEY + userId);
         boolean isLock = lock.tryLock();
         if (!isLock) {
-            // 索取锁失败，重试或者直接抛异常（这个业务是一人一单，所以直接返回失败信息）
-            log.error("一人只能下一单");
-            return;
+            // 索取锁失败，说明其它节点正在处理该用户的订单（例如接管的pending-list订单）
+            // 抛出异常不确认消息，订单留在pending-list中稍后重试，不能直接丢弃Redis已经接受的订单
+            throw new RuntimeException("获取用户" + userId + "的下单锁失败，稍后重试");
         }
         try {
             // 创建订单（使用代理对象调用，是为了确保事务生效）
-            proxy.createVoucherOrder(voucherOrder);
+            afterVoucherOrder(voucherOrder, proxy.createVoucherOrder(voucherOrder));
         } finally {
             lock.unlock();
         }
     }
 
     /**
-     * 加载 判断秒杀券库存是否充足 并且 判断用户是否已下单 的Lua脚本
+     * 订单事务提交后记录订单状态，创建成功的订单加入支付超时队列
+     *
+     * @param voucherOrder
+     * @param created
      */
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
-    static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("lua/seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
+    private void afterVoucherOrder(VoucherOrder voucherOrder, boolean created) {
+        seckillClient.markOrderStatus(voucherOrder.getId(),
+                created ? SeckillClient.ORDER_CREATED : SeckillClient.ORDER_FAILED);
+        if (created) {
+            seckillPayTimeoutQueue.schedule(Collections.singletonList(voucherOrder));
+        }
     }
 
-    /**
-     * VoucherOrderServiceImpl类的代理对象
-     * 将代理对象的作用域进行提升，方面子线程取用
-     */
-    private IVoucherOrderService proxy;
-
     /**
      * 抢购秒杀券
      *
@@ -140,37 +665,64 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Transactional
     @Override
     public Result seckillVoucher(Long voucherId) {
-        // 1、执行Lua脚本，判断用户是否具有秒杀资格
+        // 1、本地售罄标记命中，直接返回，无需访问Redis
+        if (seckillSoldOutCache.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        // 订单积压超过高水位，在扣库存之前拒绝，保证已接受的订单都能进入消息队列并被处理
+        if (isOverloaded()) {
+            return Result.fail("抢购人数过多，请稍后再试");
+        }
+        long restockVersion = seckillSoldOutCache.version(voucherId);
+        Long userId = UserHolder.getUser().getId();
+        // 2、生成订单id，由Lua脚本与扣库存一起原子地写入消息队列
+        long orderId = redisIdWorker.nextId("Order");
+        // 3、执行Lua脚本，判断用户是否具有秒杀资格
         Long result = null;
         try {
-            result = stringRedisTemplate.execute(
-                    SECKILL_SCRIPT,
-                    Collections.emptyList(),
-                    voucherId.toString(),
-                    UserHolder.getUser().getId().toString()
-            );
+            result = seckillClient.seckill(voucherId, userId, orderId);
         } catch (Exception e) {
             log.error("Lua脚本执行失败");
             throw new RuntimeException(e);
         }
         if (result != null && !result.equals(0L)) {
-            // result为1表示库存不足，result为2表示用户已下单
+            // result为1表示库存不足，result为2表示用户已下单，result为4表示秒杀尚未开始，result为5表示秒杀已经结束，result为6表示被限流
             int r = result.intValue();
-            return Result.fail(r == 2 ? "不能重复下单" : "库存不足");
+            switch (r) {
+                case 2:
+                    return Result.fail("不能重复下单");
+                case 6:
+                    return Result.fail("抢购人数过多，请稍后再试");
+                case 4:
+                    return Result.fail("秒杀尚未开始");
+                case 5:
+                    return Result.fail("秒杀已经结束");
+                default:
+                    // 设置本地售罄标记，后续请求不再访问Redis
+                    seckillSoldOutCache.markSoldOut(voucherId, restockVersion);
+                    return Result.fail("库存不足");
+            }
         }
-        // 2、result为0，用户具有秒杀资格，将订单保存到阻塞队列中，实现异步下单
-        long orderId = redisIdWorker.nextId("Order");
-        // 创建订单
-        VoucherOrder voucherOrder = new VoucherOrder();
-        voucherOrder.setId(orderId);
-        voucherOrder.setUserId(UserHolder.getUser().getId());
-        voucherOrder.setVoucherId(voucherId);
-        // 将订单保存到阻塞队列中
-        orderTasks.add(voucherOrder);
-        // 索取锁成功，创建代理对象，使用代理对象调用第三方事务方法， 防止事务失效
-        IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
-        this.proxy = proxy;
-        return Result.ok();
+        // 4、result为0，用户具有秒杀资格，订单已进入消息队列，由消费线程异步创建订单
+        seckillClient.markQueued(orderId);
+        // 5、返回订单id，客户端通过订单状态接口轮询下单结果
+        // 订单id超过2^53，以字符串返回，避免JavaScript解析为Number时丢失精度
+        return Result.ok(String.valueOf(orderId));
+    }
+
+    /**
+     * 查询秒杀订单状态，只访问Redis
+     *
+     * @param orderId
+     * @return
+     */
+    @Override
+    public Result queryOrderStatus(Long orderId) {
+        String status = seckillClient.getOrderStatus(orderId);
+        if (status == null) {
+            return Result.fail("订单不存在");
+        }
+        return Result.ok(status);
     }
 
 
@@ -178,20 +730,26 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      * 创建订单
      *
      * @param voucherOrder
-     * @return
+     * @return true：订单已创建（包括重复消费已经创建的订单），false：用户已有其它订单
      */
     @Transactional
     @Override
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
+    public boolean createVoucherOrder(VoucherOrder voucherOrder) {
         Long userId = voucherOrder.getUserId();
         Long voucherId = voucherOrder.getVoucherId();
         // 1、判断当前用户是否是第一单
-        int count = this.count(new LambdaQueryWrapper<VoucherOrder>()
-                .eq(VoucherOrder::getUserId, userId));
-        if (count >= 1) {
-            // 当前用户不是第一单
+        List<VoucherOrder> existing = this.list(new LambdaQueryWrapper<VoucherOrder>()
+                .select(VoucherOrder::getId, VoucherOrder::getStatus)
+                .eq(VoucherOrder::getUserId, userId)
+                .eq(VoucherOrder::getVoucherId, voucherId));
+        if (existing.stream().anyMatch(order -> order.getId().equals(voucherOrder.getId()))) {
+            // 订单id相同说明是重复消费
+            return true;
+        }
+        // 已取消（超时未支付）的订单不算，用户可以重新抢购
+        if (existing.stream().anyMatch(order -> order.getStatus() != 4)) {
             log.error("当前用户不是第一单");
-            return;
+            return false;
         }
         // 2、用户是第一单，可以下单，秒杀券库存数量减一
         boolean flag = seckillVoucherService.update(new LambdaUpdateWrapper<SeckillVoucher>()
@@ -206,6 +764,198 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         if (!flag) {
             throw new RuntimeException("创建秒杀券订单失败");
         }
+        return true;
+    }
+
+    /**
+     * 批量创建订单：按优惠券分组，每张优惠券只扣减一次库存（stock = stock - k），所有订单一次多行INSERT
+     *
+     * @param voucherOrders
+     * @return 因一人一单被拒绝的订单id（重复消费已经创建的订单不算被拒绝）
+     */
+    @Transactional
+    @Override
+    public Set<Long> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        List<VoucherOrder> toSave = new ArrayList<>(voucherOrders.size());
+        Set<Long> rejectedIds = new HashSet<>();
+        // 1、按优惠券分组
+        Map<Long, List<VoucherOrder>> ordersByVoucher = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId));
+        for (Map.Entry<Long, List<VoucherOrder>> entry : ordersByVoucher.entrySet()) {
+            Long voucherId = entry.getKey();
+            // 2、一人一单：查询本批用户中已经下过单的用户
+            Set<Long> userIds = entry.getValue().stream()
+                    .map(VoucherOrder::getUserId)
+                    .collect(Collectors.toSet());
+            List<VoucherOrder> existing = this.list(new LambdaQueryWrapper<VoucherOrder>()
+                    .select(VoucherOrder::getId, VoucherOrder::getUserId, VoucherOrder::getStatus)
+                    .eq(VoucherOrder::getVoucherId, voucherId)
+                    .in(VoucherOrder::getUserId, userIds));
+            // 已取消（超时未支付）的订单不算，用户可以重新抢购
+            Set<Long> orderedUserIds = existing.stream()
+                    .filter(order -> order.getStatus() != 4)
+                    .map(VoucherOrder::getUserId)
+                    .collect(Collectors.toCollection(HashSet::new));
+            Set<Long> existingIds = existing.stream()
+                    .map(VoucherOrder::getId)
+                    .collect(Collectors.toSet());
+            List<VoucherOrder> orders = new ArrayList<>(entry.getValue().size());
+            for (VoucherOrder voucherOrder : entry.getValue()) {
+                // 重复消费已经创建（包括已取消）的订单直接跳过
+                if (existingIds.contains(voucherOrder.getId())) {
+                    continue;
+                }
+                // 已下过单或者同一批次中重复的订单直接跳过
+                if (!orderedUserIds.add(voucherOrder.getUserId())) {
+                    log.error("当前用户不是第一单");
+                    rejectedIds.add(voucherOrder.getId());
+                    continue;
+                }
+                orders.add(voucherOrder);
+            }
+            if (orders.isEmpty()) {
+                continue;
+            }
+            // 3、一次性扣减该优惠券的库存
+            int count = orders.size();
+            boolean flag = seckillVoucherService.update(new LambdaUpdateWrapper<SeckillVoucher>()
+                    .eq(SeckillVoucher::getVoucherId, voucherId)
+                    .ge(SeckillVoucher::getStock, count)
+                    .setSql("stock = stock - " + count));
+            if (!flag) {
+                throw new RuntimeException("秒杀券扣减失败");
+            }
+            toSave.addAll(orders);
+        }
+        // 同一条订单在本批次中重复出现时，以创建成功为准
+        for (VoucherOrder voucherOrder : toSave) {
+            rejectedIds.remove(voucherOrder.getId());
+        }
+        if (toSave.isEmpty()) {
+            return rejectedIds;
+        }
+        // 4、多行INSERT保存订单
+        int rows = getBaseMapper().insertBatch(toSave);
+        if (rows != toSave.size()) {
+            throw new RuntimeException("创建秒杀券订单失败");
+        }
+        return rejectedIds;
+    }
+
+    /**
+     * 创建订单（唯一索引模式）：不加锁也不预先查询，由 (user_id, voucher_id, active) 唯一索引保证一人一单，已取消订单的active为NULL，不占用名额
+     *
+     * @param voucherOrder
+     * @return true：订单已创建（包括重复消费已经创建的订单），false：用户已有其它订单
+     */
+    @Transactional
+    @Override
+    public boolean createVoucherOrderUnique(VoucherOrder voucherOrder) {
+        // 1、插入订单，用户已有订单时被唯一索引忽略
+        int rows = getBaseMapper().insertIgnore(voucherOrder);
+        if (rows == 0) {
+            // 只有重复的订单才会查询，订单id已存在说明是重复消费
+            log.error("当前用户不是第一单");
+            return this.getById(voucherOrder.getId()) != null;
+        }
+        // 2、插入成功，秒杀券库存数量减一
+        boolean flag = seckillVoucherService.update(new LambdaUpdateWrapper<SeckillVoucher>()
+                .eq(SeckillVoucher::getVoucherId, voucherOrder.getVoucherId())
+                .gt(SeckillVoucher::getStock, 0)
+                .setSql("stock = stock -1"));
+        if (!flag) {
+            throw new RuntimeException("秒杀券扣减失败");
+        }
+        return true;
+    }
+
+    /**
+     * 批量创建订单（唯一索引模式）：每张优惠券一次多行 INSERT IGNORE，再按实际插入的行数扣减一次库存
+     *
+     * @param voucherOrders
+     * @return 因一人一单被拒绝的订单id（重复消费已经创建的订单不算被拒绝）
+     */
+    @Transactional
+    @Override
+    public Set<Long> createVoucherOrdersUnique(List<VoucherOrder> voucherOrders) {
+        Set<Long> rejectedIds = new HashSet<>();
+        Map<Long, List<VoucherOrder>> ordersByVoucher = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId));
+        for (Map.Entry<Long, List<VoucherOrder>> entry : ordersByVoucher.entrySet()) {
+            List<VoucherOrder> orders = entry.getValue();
+            // 1、多行INSERT IGNORE，重复的订单被忽略
+            int rows = getBaseMapper().insertIgnoreBatch(orders);
+            if (rows < orders.size()) {
+                // 2、有订单被忽略时按主键查询，不存在的订单就是被唯一索引拒绝的
+                Set<Long> existingIds = this.list(new LambdaQueryWrapper<VoucherOrder>()
+                                .select(VoucherOrder::getId)
+                                .in(VoucherOrder::getId, orders.stream().map(VoucherOrder::getId).collect(Collectors.toList())))
+                        .stream()
+                        .map(VoucherOrder::getId)
+                        .collect(Collectors.toSet());
+                for (VoucherOrder voucherOrder : orders) {
+                    if (!existingIds.contains(voucherOrder.getId())) {
+                        log.error("当前用户不是第一单");
+                        rejectedIds.add(voucherOrder.getId());
+                    }
+                }
+            }
+            if (rows == 0) {
+                continue;
+            }
+            // 3、按实际插入的订单数量扣减一次库存
+            boolean flag = seckillVoucherService.update(new LambdaUpdateWrapper<SeckillVoucher>()
+                    .eq(SeckillVoucher::getVoucherId, entry.getKey())
+                    .ge(SeckillVoucher::getStock, rows)
+                    .setSql("stock = stock - " + rows));
+            if (!flag) {
+                throw new RuntimeException("秒杀券扣减失败");
+            }
+        }
+        return rejectedIds;
+    }
+
+    /**
+     * 取消超时未支付的订单：未支付的订单改为已取消，并按取消的订单数量归还每张优惠券的库存
+     * 已经是已取消状态的订单不会重复归还库存，用于Redis归还库存前宕机后的重试
+     *
+     * @param orderIds
+     * @return 已取消的订单id（包括之前已经取消的订单），已支付或不存在的订单不在其中
+     */
+    @Transactional
+    @Override
+    public Set<Long> cancelVoucherOrders(List<Long> orderIds) {
+        // 1、锁定仍未支付或已取消的订单，避免与支付并发修改
+        List<VoucherOrder> orders = this.list(new LambdaQueryWrapper<VoucherOrder>()
+                .select(VoucherOrder::getId, VoucherOrder::getVoucherId, VoucherOrder::getStatus)
+                .in(VoucherOrder::getId, orderIds)
+                .in(VoucherOrder::getStatus, 1, 4)
+                .last("for update"));
+        Set<Long> cancelledIds = new HashSet<>();
+        Map<Long, Integer> restockByVoucher = new HashMap<>();
+        List<Long> unpaidIds = new ArrayList<>();
+        for (VoucherOrder order : orders) {
+            cancelledIds.add(order.getId());
+            if (order.getStatus() == 1) {
+                unpaidIds.add(order.getId());
+                restockByVoucher.merge(order.getVoucherId(), 1, Integer::sum);
+            }
+        }
+        if (unpaidIds.isEmpty()) {
+            return cancelledIds;
+        }
+        // 2、未支付的订单改为已取消
+        this.update(new LambdaUpdateWrapper<VoucherOrder>()
+                .in(VoucherOrder::getId, unpaidIds)
+                .eq(VoucherOrder::getStatus, 1)
+                .set(VoucherOrder::getStatus, 4));
+        // 3、每张优惠券归还一次库存
+        for (Map.Entry<Long, Integer> entry : restockByVoucher.entrySet()) {
+            seckillVoucherService.update(new LambdaUpdateWrapper<SeckillVoucher>()
+                    .eq(SeckillVoucher::getVoucherId, entry.getKey())
+                    .setSql("stock = stock + " + entry.getValue()));
+        }
+        return cancelledIds;
     }
 }
 
@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.update.LambdaUpdateWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
@@ -7,8 +8,8 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
-import com.hmdp.utils.RedisConstants;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.SeckillClient;
+import com.hmdp.utils.SeckillSoldOutCache;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -29,7 +30,9 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private ISeckillVoucherService seckillVoucherService;
     @Resource
-    private StringRedisTemplate StringRedisTemplate;
+    private SeckillSoldOutCache seckillSoldOutCache;
+    @Resource
+    private SeckillClient seckillClient;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -51,7 +54,49 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        // 保存秒杀库存到Redis中
-        StringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 保存秒杀券元数据和秒杀库存到Redis中，秒杀时只访问Redis
+        seckillClient.saveVoucher(seckillVoucher);
+        seckillClient.setStock(voucher.getId(), voucher.getStock());
+        // 通知所有节点清除该秒杀券的售罄标记
+        seckillSoldOutCache.publishRestock(voucher.getId());
+    }
+
+    @Override
+    @Transactional
+    public Result addSeckillStock(Long voucherId, Integer amount) {
+        if (amount == null || amount <= 0) {
+            return Result.fail("补充的库存数量必须大于0");
+        }
+        // 1、增加数据库库存
+        boolean flag = seckillVoucherService.update(new LambdaUpdateWrapper<SeckillVoucher>()
+                .eq(SeckillVoucher::getVoucherId, voucherId)
+                .setSql("stock = stock + " + amount));
+        if (!flag) {
+            return Result.fail("秒杀券不存在");
+        }
+        // 2、增加Redis库存（增量更新，不会覆盖正在进行的秒杀扣减）
+        seckillClient.addStock(voucherId, amount);
+        // 3、通知所有节点清除该秒杀券的售罄标记
+        seckillSoldOutCache.publishRestock(voucherId);
+        return Result.ok();
+    }
+
+    /**
+     * 修改秒杀券的限流配置，只保存在Redis中，由秒杀脚本在扣库存之前校验
+     *
+     * @param voucherId
+     * @param rate
+     * @param burst
+     * @param userRate
+     * @param userBurst
+     * @return
+     */
+    @Override
+    public Result updateSeckillLimit(Long voucherId, Double rate, Double burst, Double userRate, Double userBurst) {
+        if (seckillVoucherService.getById(voucherId) == null) {
+            return Result.fail("秒杀券不存在");
+        }
+        seckillClient.saveLimit(voucherId, rate, burst, userRate, userBurst);
+        return Result.ok();
     }
 }
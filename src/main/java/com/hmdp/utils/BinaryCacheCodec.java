@@ -0,0 +1,407 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑的二进制编码，只用于普通的Java对象（例如Shop）
+ * 格式：标记(1字节) + 结构哈希(4字节) + 字段非空位图 + 按字段名排序的各个非空字段
+ * 整数使用zigzag变长编码，字符串为 长度 + UTF-8字节，时间为 秒 + 纳秒；不在下面列出的字段类型按JSON字符串写入
+ * 类的字段发生变化后结构哈希不一致，旧数据解码为null，由调用方重新加载；数据被截断或损坏时同样解码为null
+ * 集合、数组、基本类型等其它值使用JSON编码
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    public static final String NAME = "binary";
+
+    public static final byte TAG = 0x01;
+
+    /**
+     * 无法使用二进制编码的值
+     */
+    private final CacheCodec fallback;
+
+    /**
+     * 类 -> 字段结构，不支持的类对应 UNSUPPORTED
+     */
+    private final Map<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    private static final Schema UNSUPPORTED = new Schema(null, new FieldCodec[0], 0);
+
+    public BinaryCacheCodec(CacheCodec fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean accepts(byte first) {
+        return first == TAG;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Schema schema = schema(value.getClass());
+        if (schema == UNSUPPORTED) {
+            return fallback.encode(value);
+        }
+        Output out = new Output(128);
+        out.writeByte(TAG);
+        out.writeInt(schema.hash);
+        FieldCodec[] fields = schema.fields;
+        Object[] values = new Object[fields.length];
+        byte[] bitmap = new byte[(fields.length + 7) >>> 3];
+        for (int i = 0; i < fields.length; i++) {
+            values[i] = fields[i].get(value);
+            if (values[i] != null) {
+                bitmap[i >>> 3] |= 1 << (i & 7);
+            }
+        }
+        out.writeBytes(bitmap, 0, bitmap.length);
+        for (int i = 0; i < fields.length; i++) {
+            if (values[i] != null) {
+                fields[i].write(out, values[i]);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, int offset, Class<T> type) {
+        Schema schema = schema(type);
+        if (schema == UNSUPPORTED) {
+            return null;
+        }
+        Input in = new Input(bytes, offset);
+        try {
+            if (in.readByte() != TAG || in.readInt() != schema.hash) {
+                return null;
+            }
+            FieldCodec[] fields = schema.fields;
+            int bitmapOffset = in.position;
+            in.position += (fields.length + 7) >>> 3;
+            T t = type.cast(schema.constructor.newInstance());
+            for (int i = 0; i < fields.length; i++) {
+                if ((bytes[bitmapOffset + (i >>> 3)] & (1 << (i & 7))) != 0) {
+                    fields[i].set(t, fields[i].read(in));
+                }
+            }
+            return t;
+        } catch (IndexOutOfBoundsException | DateTimeException e) {
+            // 数据被截断或损坏，按缓存未命中处理
+            return null;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("解码" + type.getName() + "失败", e);
+        }
+    }
+
+    private Schema schema(Class<?> type) {
+        return schemas.computeIfAbsent(type, BinaryCacheCodec::createSchema);
+    }
+
+    /**
+     * 只支持有无参构造函数的普通Java对象，字段包括父类字段，不包括static和transient字段
+     */
+    private static Schema createSchema(Class<?> type) {
+        if (type.isPrimitive() || type.isArray() || type.isEnum() || type.isInterface()
+                || Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)
+                || type.getName().startsWith("java.")) {
+            return UNSUPPORTED;
+        }
+        Constructor<?> constructor;
+        try {
+            constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            return UNSUPPORTED;
+        }
+        List<Field> fields = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                    fields.add(field);
+                }
+            }
+        }
+        fields.sort(Comparator.comparing(Field::getName).thenComparing(f -> f.getDeclaringClass().getName()));
+        FieldCodec[] codecs = new FieldCodec[fields.size()];
+        int hash = 1;
+        for (int i = 0; i < codecs.length; i++) {
+            Field field = fields.get(i);
+            field.setAccessible(true);
+            codecs[i] = new FieldCodec(field, Kind.of(field.getType()));
+            hash = 31 * hash + (field.getName() + ":" + field.getType().getName()).hashCode();
+        }
+        return new Schema(constructor, codecs, hash);
+    }
+
+    private static class Schema {
+        private final Constructor<?> constructor;
+        private final FieldCodec[] fields;
+        private final int hash;
+
+        private Schema(Constructor<?> constructor, FieldCodec[] fields, int hash) {
+            this.constructor = constructor;
+            this.fields = fields;
+            this.hash = hash;
+        }
+    }
+
+    private static class FieldCodec {
+        private final Field field;
+        private final Kind kind;
+
+        private FieldCodec(Field field, Kind kind) {
+            this.field = field;
+            this.kind = kind;
+        }
+
+        private Object get(Object target) {
+            try {
+                return field.get(target);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void set(Object target, Object value) throws IllegalAccessException {
+            field.set(target, value);
+        }
+
+        private void write(Output out, Object value) {
+            switch (kind) {
+                case LONG:
+                    out.writeVarLong((Long) value);
+                    break;
+                case INT:
+                    out.writeVarLong((Integer) value);
+                    break;
+                case SHORT:
+                    out.writeVarLong((Short) value);
+                    break;
+                case BYTE:
+                    out.writeByte((Byte) value);
+                    break;
+                case BOOLEAN:
+                    out.writeByte((Boolean) value ? 1 : 0);
+                    break;
+                case DOUBLE:
+                    out.writeLong(Double.doubleToRawLongBits((Double) value));
+                    break;
+                case FLOAT:
+                    out.writeInt(Float.floatToRawIntBits((Float) value));
+                    break;
+                case STRING:
+                    out.writeString((String) value);
+                    break;
+                case LOCAL_DATE_TIME:
+                    LocalDateTime time = (LocalDateTime) value;
+                    out.writeVarLong(time.toEpochSecond(ZoneOffset.UTC));
+                    out.writeVarLong(time.getNano());
+                    break;
+                case LOCAL_DATE:
+                    out.writeVarLong(((LocalDate) value).toEpochDay());
+                    break;
+                default:
+                    out.writeString(JSONUtil.toJsonStr(value));
+            }
+        }
+
+        private Object read(Input in) {
+            switch (kind) {
+                case LONG:
+                    return in.readVarLong();
+                case INT:
+                    return (int) in.readVarLong();
+                case SHORT:
+                    return (short) in.readVarLong();
+                case BYTE:
+                    return in.readByte();
+                case BOOLEAN:
+                    return in.readByte() != 0;
+                case DOUBLE:
+                    return Double.longBitsToDouble(in.readLong());
+                case FLOAT:
+                    return Float.intBitsToFloat(in.readInt());
+                case STRING:
+                    return in.readString();
+                case LOCAL_DATE_TIME:
+                    long seconds = in.readVarLong();
+                    return LocalDateTime.ofEpochSecond(seconds, (int) in.readVarLong(), ZoneOffset.UTC);
+                case LOCAL_DATE:
+                    return LocalDate.ofEpochDay(in.readVarLong());
+                default:
+                    return JSONUtil.toBean(in.readString(), field.getGenericType(), false);
+            }
+        }
+    }
+
+    private enum Kind {
+        LONG, INT, SHORT, BYTE, BOOLEAN, DOUBLE, FLOAT, STRING, LOCAL_DATE_TIME, LOCAL_DATE, JSON;
+
+        private static Kind of(Class<?> type) {
+            if (type == Long.class || type == long.class) {
+                return LONG;
+            }
+            if (type == Integer.class || type == int.class) {
+                return INT;
+            }
+            if (type == Short.class || type == short.class) {
+                return SHORT;
+            }
+            if (type == Byte.class || type == byte.class) {
+                return BYTE;
+            }
+            if (type == Boolean.class || type == boolean.class) {
+                return BOOLEAN;
+            }
+            if (type == Double.class || type == double.class) {
+                return DOUBLE;
+            }
+            if (type == Float.class || type == float.class) {
+                return FLOAT;
+            }
+            if (type == String.class) {
+                return STRING;
+            }
+            if (type == LocalDateTime.class) {
+                return LOCAL_DATE_TIME;
+            }
+            if (type == LocalDate.class) {
+                return LOCAL_DATE;
+            }
+            return JSON;
+        }
+    }
+
+    private static class Output {
+        private byte[] buf;
+        private int size;
+
+        private Output(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        private void ensure(int n) {
+            if (size + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, size + n));
+            }
+        }
+
+        private void writeByte(int b) {
+            ensure(1);
+            buf[size++] = (byte) b;
+        }
+
+        private void writeBytes(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, buf, size, length);
+            size += length;
+        }
+
+        private void writeInt(int v) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                buf[size++] = (byte) (v >>> shift);
+            }
+        }
+
+        private void writeLong(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[size++] = (byte) (v >>> shift);
+            }
+        }
+
+        /**
+         * zigzag变长编码，绝对值小的整数（包括负数）占用的字节少
+         */
+        private void writeVarLong(long v) {
+            long zigzag = (v << 1) ^ (v >> 63);
+            ensure(10);
+            while ((zigzag & ~0x7FL) != 0) {
+                buf[size++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buf[size++] = (byte) zigzag;
+        }
+
+        private void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            writeBytes(bytes, 0, bytes.length);
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+    }
+
+    private static class Input {
+        private final byte[] buf;
+        private int position;
+
+        private Input(byte[] buf, int position) {
+            this.buf = buf;
+            this.position = position;
+        }
+
+        private byte readByte() {
+            return buf[position++];
+        }
+
+        private int readInt() {
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+                v = (v << 8) | (buf[position++] & 0xFF);
+            }
+            return v;
+        }
+
+        private long readLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[position++] & 0xFF);
+            }
+            return v;
+        }
+
+        private long readVarLong() {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf[position++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        private String readString() {
+            int length = (int) readVarLong();
+            String s = new String(buf, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return s;
+        }
+    }
+}
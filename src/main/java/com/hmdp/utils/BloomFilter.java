@@ -0,0 +1,102 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * id布隆过滤器：判断为不存在的id一定不存在，判断为存在的id有一定概率（误判率）实际不存在
+ * 按预计元素数量n和误判率p计算位数组长度 m = -n * ln(p) / (ln2)^2，哈希函数个数 k = m / n * ln2
+ * 位数组使用AtomicLongArray，添加和查询都不需要加锁
+ */
+public class BloomFilter {
+
+    private final long expectedInsertions;
+
+    private final double falsePositiveRate;
+
+    /**
+     * 位数组长度
+     */
+    private final long bitSize;
+
+    /**
+     * 哈希函数个数
+     */
+    private final int hashes;
+
+    private final AtomicLongArray bits;
+
+    /**
+     * 添加的id数量（包括重复添加）
+     */
+    private final LongAdder insertions = new LongAdder();
+
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        if (expectedInsertions <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("expectedInsertions must be positive and falsePositiveRate in (0, 1)");
+        }
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+        long m = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, (m + 63) >>> 6);
+        this.bitSize = (long) words << 6;
+        this.hashes = Math.max(1, (int) Math.round((double) bitSize / expectedInsertions * Math.log(2)));
+        this.bits = new AtomicLongArray(words);
+    }
+
+    public void add(long id) {
+        long h1 = mix(id);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long index = Math.floorMod(h1 + i * h2, bitSize);
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            long old;
+            while (((old = bits.get(word)) & mask) == 0 && !bits.compareAndSet(word, old, old | mask)) {
+                // 其它线程同时修改了同一个long，重试
+            }
+        }
+        insertions.increment();
+    }
+
+    public boolean mightContain(long id) {
+        long h1 = mix(id);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long index = Math.floorMod(h1 + i * h2, bitSize);
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * SplitMix64的混合函数，连续的id也能均匀分布到位数组中
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    public long getExpectedInsertions() {
+        return expectedInsertions;
+    }
+
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    public long getBitSize() {
+        return bitSize;
+    }
+
+    public int getHashes() {
+        return hashes;
+    }
+
+    public long getInsertions() {
+        return insertions.sum();
+    }
+}
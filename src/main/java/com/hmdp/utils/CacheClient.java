@@ -1,21 +1,28 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
+import static com.hmdp.utils.RedisConstants.LOCK_CACHE_LOAD_KEY;
 import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
 
 @Component
@@ -24,12 +31,38 @@ public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    private final LocalCache localCache;
+
+    private final SingleFlight singleFlight;
+
+    private final IdBloomFilters idBloomFilters;
+
+    private final CacheCodecs cacheCodecs;
+
+    private final RebuildScheduler rebuildScheduler;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    /**
+     * 逻辑过期数据提前刷新的系数，越大越早刷新，为0时只在过期后刷新
+     */
+    @Value("${hmdp.cache.refresh-ahead.beta:1.0}")
+    private double refreshBeta;
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, LocalCache localCache, SingleFlight singleFlight,
+                       IdBloomFilters idBloomFilters, CacheCodecs cacheCodecs, RebuildScheduler rebuildScheduler,
+                       HotKeyDetector hotKeyDetector) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.localCache = localCache;
+        this.singleFlight = singleFlight;
+        this.idBloomFilters = idBloomFilters;
+        this.cacheCodecs = cacheCodecs;
+        this.rebuildScheduler = rebuildScheduler;
+        this.hotKeyDetector = hotKeyDetector;
     }
 
     /**
-     * 将数据加入Redis，并设置有效期
+     * 将数据加入Redis，并设置有效期，空字符串表示空值
      *
      * @param key
      * @param value
@@ -37,7 +70,8 @@ public class CacheClient {
      * @param unit
      */
     public void set(String key, Object value, Long timeout, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), timeout, unit);
+        byte[] bytes = "".equals(value) ? new byte[0] : cacheCodecs.encode(value);
+        setBytes(key, bytes, unit.toMillis(timeout));
     }
 
     /**
@@ -49,15 +83,96 @@ public class CacheClient {
      * @param unit
      */
     public void setWithLogicalExpire(String key, Object value, Long timeout, TimeUnit unit) {
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        // unit.toSeconds()是为了确保计时单位是秒
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(timeout)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData), timeout, unit);
+        setWithLogicalExpire(key, value, timeout, unit, 0);
+    }
+
+    /**
+     * 将数据加入Redis，并设置逻辑过期时间，同时记录重建耗时，用于提前刷新
+     */
+    private void setWithLogicalExpire(String key, Object value, Long timeout, TimeUnit unit, int costMillis) {
+        // 逻辑过期时间写在数据前面的固定长度头部中，读取时不需要解析数据就能判断是否过期
+        long expireMillis = System.currentTimeMillis() + unit.toMillis(timeout);
+        setBytes(key, cacheCodecs.encodeLogical(value, expireMillis, costMillis), unit.toMillis(timeout));
+    }
+
+    /**
+     * 通过管道批量写入数据，并设置有效期
+     *
+     * @param keyPrefix key前缀
+     * @param values    id -> 数据
+     * @param timeout
+     * @param unit
+     */
+    public <T, ID> void setAll(String keyPrefix, Map<ID, T> values, Long timeout, TimeUnit unit) {
+        setAllBytes(keyPrefix, new ArrayList<>(values.keySet()), values, unit.toMillis(timeout));
+    }
+
+    /**
+     * 通过管道批量写入数据，并设置逻辑过期时间
+     *
+     * @param keyPrefix key前缀
+     * @param values    id -> 数据
+     * @param timeout
+     * @param unit
+     */
+    public <T, ID> void setAllWithLogicalExpire(String keyPrefix, Map<ID, T> values, Long timeout, TimeUnit unit) {
+        long millis = unit.toMillis(timeout);
+        long expireMillis = System.currentTimeMillis() + millis;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<ID, T> entry : values.entrySet()) {
+                byte[] rawKey = (keyPrefix + entry.getKey()).getBytes(StandardCharsets.UTF_8);
+                connection.pSetEx(rawKey, millis, cacheCodecs.encodeLogical(entry.getValue(), expireMillis));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * GET key，返回原始字节
+     *
+     * @param key
+     * @return
+     */
+    private byte[] getBytes(String key) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey));
+    }
+
+    /**
+     * PSETEX key millis value
+     */
+    private void setBytes(String key, byte[] value, long millis) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection -> connection.pSetEx(rawKey, millis, value));
+    }
+
+    /**
+     * 删除缓存，并通知所有节点清除本地缓存
+     *
+     * @param key
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        localCache.publishInvalidate(key);
+    }
+
+    /**
+     * 写入本地缓存，热点key在未启用本地缓存时也短暂缓存
+     *
+     * @param hits 热点key探测统计的访问次数
+     */
+    private void putLocal(String key, Object value, long redisTtlMillis, long version, long hits) {
+        if (hotKeyDetector.isHot(hits)) {
+            localCache.putHot(key, value, redisTtlMillis, version);
+        } else {
+            localCache.put(key, value, redisTtlMillis, version);
+        }
     }
 
     /**
      * 根据id查询数据（处理缓存穿透）
+     * 布隆过滤器判断id不存在时直接返回，不查询Redis和数据库
+     * 启用本地缓存时先查询本地缓存，未命中再查询Redis，查询结果（包括空值）写入本地缓存；热点key未启用本地缓存时也短暂缓存
      *
      * @param keyPrefix  key前缀
      * @param id         查询id
@@ -71,44 +186,216 @@ public class CacheClient {
      */
     public <T, ID> T handleCachePenetration(String keyPrefix, ID id, Class<T> type,
                                             Function<ID, T> dbFallback, Long timeout, TimeUnit unit) {
+        // 0、布隆过滤器判断id一定不存在，直接返回
+        if (!idBloomFilters.mightContainKey(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
+        long hits = hotKeyDetector.record(key);
+        // 0.1 从本地缓存中查询
+        Object local = localCache.get(key);
+        if (local != null) {
+            return local == LocalCache.NULL_VALUE ? null : type.cast(local);
+        }
+        long version = localCache.version();
         // 1、从Redis中查询店铺数据
-        String jsonStr = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = getBytes(key);
 
-        T t = null;
         // 2、判断缓存是否命中
-        if (StrUtil.isNotBlank(jsonStr)) {
-            // 2.1 缓存命中，直接返回店铺数据
-            t = JSONUtil.toBean(jsonStr, type);
+        if (bytes != null && bytes.length > 0) {
+            // 2.1 缓存命中，直接返回店铺数据（无法解码的旧数据按未命中处理，重新加载）
+            T t = cacheCodecs.decode(bytes, type);
+            if (t != null) {
+                putLocal(key, t, unit.toMillis(timeout), version, hits);
+                return t;
+            }
+        } else if (bytes != null) {
+            // 2.2 当前数据是空字符串（说明该数据是之前缓存的空对象），直接返回失败信息
+            putLocal(key, LocalCache.NULL_VALUE, TimeUnit.SECONDS.toMillis(CACHE_NULL_TTL), version, hits);
+            return null;
+        }
+        // 2.2.2 当前数据是null，则从数据库中查询店铺数据（同一个key的并发查询合并为一次）
+        return singleFlight.load(key, () -> loadFromDb(key, id, type, dbFallback, timeout, unit));
+    }
+
+    /**
+     * 从数据库中查询数据并重建缓存
+     * redis模式下先获取加载锁，其它节点正在加载时等待其写入缓存，超时后再自己查询数据库
+     */
+    private <T, ID> T loadFromDb(String key, ID id, Class<T> type,
+                                 Function<ID, T> dbFallback, Long timeout, TimeUnit unit) {
+        String lockKey = null;
+        if (singleFlight.isRedisMode()) {
+            lockKey = LOCK_CACHE_LOAD_KEY + key;
+            if (!tryLock(lockKey)) {
+                lockKey = null;
+                byte[] bytes = waitForCache(key);
+                singleFlight.recordRemoteWait(bytes != null);
+                if (bytes != null) {
+                    return bytes.length == 0 ? null : cacheCodecs.decode(bytes, type);
+                }
+            }
+        }
+        try {
+            T t = dbFallback.apply(id);
+
+            // 4、判断数据库是否存在店铺数据
+            if (Objects.isNull(t)) {
+                // 4.1 数据库中不存在，缓存空对象（解决缓存穿透），返回失败信息
+                this.set(key, "", CACHE_NULL_TTL, TimeUnit.SECONDS);
+                return null;
+            }
+            // 4.2 数据库中存在，重建缓存，并返回店铺数据
+            this.set(key, t, timeout, unit);
             return t;
+        } finally {
+            if (lockKey != null) {
+                unlock(lockKey);
+            }
         }
+    }
 
-        // 2.2 缓存未命中，判断缓存中查询的数据是否是空字符串(isNotBlank把null和空字符串给排除了)
-        if (Objects.nonNull(jsonStr)) {
-            // 2.2.1 当前数据是空字符串（说明该数据是之前缓存的空对象），直接返回失败信息
-            return null;
+    /**
+     * 等待其它节点写入缓存
+     *
+     * @param key
+     * @return 缓存的数据（空值为空数组），超时返回null
+     */
+    private byte[] waitForCache(String key) {
+        long deadline = System.currentTimeMillis() + singleFlight.getRedisWaitMillis();
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            byte[] bytes = getBytes(key);
+            if (bytes != null) {
+                return bytes;
+            }
         }
-        // 2.2.2 当前数据是null，则从数据库中查询店铺数据
-        t = dbFallback.apply(id);
+        return null;
+    }
 
-        // 4、判断数据库是否存在店铺数据
-        if (Objects.isNull(t)) {
-            // 4.1 数据库中不存在，缓存空对象（解决缓存穿透），返回失败信息
-            this.set(key, "", CACHE_NULL_TTL, TimeUnit.SECONDS);
-            return null;
+    /**
+     * 根据id批量查询数据（处理缓存穿透），无论id数量多少，最多访问Redis两次、数据库一次
+     * 1、布隆过滤器过滤一定不存在的id，本地缓存命中的id不访问Redis
+     * 2、一次MGET查询其余的key，空字符串为缓存的空值
+     * 3、未命中的id一次查询数据库，查询结果和数据库中不存在的id（空值）通过管道一次写入Redis
+     * 批量查询不合并并发的加载，单个key的并发加载仍由handleCachePenetration合并
+     *
+     * @param keyPrefix      key前缀
+     * @param ids            查询id，重复的id只查询一次
+     * @param type           查询的数据类型
+     * @param bulkDbFallback 根据id批量查询数据的函数，返回 id -> 数据，不存在的id不包含在结果中
+     * @param timeout        有效期
+     * @param unit           有效期的时间单位
+     * @param <T>
+     * @param <ID>
+     * @return 按ids的顺序返回存在的数据，不存在的id不包含在结果中
+     */
+    public <T, ID> List<T> getAll(String keyPrefix, Collection<ID> ids, Class<T> type,
+                                  Function<Collection<ID>, Map<ID, T>> bulkDbFallback, Long timeout, TimeUnit unit) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
         }
-        // 4.2 数据库中存在，重建缓存，并返回店铺数据
-        this.set(key, t, timeout, unit);
-        return t;
+        Set<ID> distinctIds = new LinkedHashSet<>(ids);
+        Map<ID, T> found = new HashMap<>(distinctIds.size() * 2);
+        // 1、布隆过滤器判断id一定不存在的直接跳过，再从本地缓存中查询
+        List<ID> redisIds = new ArrayList<>(distinctIds.size());
+        List<Long> redisHits = new ArrayList<>(distinctIds.size());
+        for (ID id : distinctIds) {
+            if (!idBloomFilters.mightContainKey(keyPrefix, id)) {
+                continue;
+            }
+            long hits = hotKeyDetector.record(keyPrefix + id);
+            Object local = localCache.get(keyPrefix + id);
+            if (local == null) {
+                redisIds.add(id);
+                redisHits.add(hits);
+            } else if (local != LocalCache.NULL_VALUE) {
+                found.put(id, type.cast(local));
+            }
+        }
+        if (!redisIds.isEmpty()) {
+            long version = localCache.version();
+            // 2、一次MGET查询Redis
+            List<byte[]> values = mGetBytes(keyPrefix, redisIds);
+            List<ID> missIds = new ArrayList<>();
+            for (int i = 0; i < redisIds.size(); i++) {
+                ID id = redisIds.get(i);
+                String key = keyPrefix + id;
+                byte[] bytes = values == null ? null : values.get(i);
+                if (bytes == null) {
+                    missIds.add(id);
+                } else if (bytes.length == 0) {
+                    // 缓存的空值
+                    putLocal(key, LocalCache.NULL_VALUE, TimeUnit.SECONDS.toMillis(CACHE_NULL_TTL), version,
+                            redisHits.get(i));
+                } else {
+                    // 无法解码的旧数据按未命中处理，重新加载
+                    T t = cacheCodecs.decode(bytes, type);
+                    if (t == null) {
+                        missIds.add(id);
+                    } else {
+                        found.put(id, t);
+                        putLocal(key, t, unit.toMillis(timeout), version, redisHits.get(i));
+                    }
+                }
+            }
+            // 3、未命中的id一次查询数据库，并通过管道写回Redis
+            if (!missIds.isEmpty()) {
+                Map<ID, T> loaded = bulkDbFallback.apply(missIds);
+                found.putAll(loaded);
+                setAllBytes(keyPrefix, missIds, loaded, unit.toMillis(timeout));
+            }
+        }
+        List<T> result = new ArrayList<>(found.size());
+        for (ID id : distinctIds) {
+            T t = found.get(id);
+            if (t != null) {
+                result.add(t);
+            }
+        }
+        return result;
     }
 
     /**
-     * 缓存重建线程池
+     * MGET key...，返回原始字节，与ids一一对应
      */
-    public static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private <ID> List<byte[]> mGetBytes(String keyPrefix, List<ID> ids) {
+        byte[][] rawKeys = new byte[ids.size()][];
+        for (int i = 0; i < rawKeys.length; i++) {
+            rawKeys[i] = (keyPrefix + ids.get(i)).getBytes(StandardCharsets.UTF_8);
+        }
+        return stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+    }
+
+    /**
+     * 通过管道一次写入多个key，数据库中不存在的id写入空值
+     */
+    private <T, ID> void setAllBytes(String keyPrefix, List<ID> ids, Map<ID, T> values, long millis) {
+        long nullMillis = TimeUnit.SECONDS.toMillis(CACHE_NULL_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : ids) {
+                byte[] rawKey = (keyPrefix + id).getBytes(StandardCharsets.UTF_8);
+                T t = values.get(id);
+                if (t == null) {
+                    connection.pSetEx(rawKey, nullMillis, new byte[0]);
+                } else {
+                    connection.pSetEx(rawKey, millis, cacheCodecs.encode(t));
+                }
+            }
+            return null;
+        });
+    }
 
     /**
      * 根据id查询数据（处理缓存击穿）
+     * 数据过期之前按概率提前刷新（XFetch）：now + 重建耗时 * beta * (-ln(random)) 超过过期时间时触发重建，
+     * 越接近过期、重建越慢，提前刷新的概率越大；各请求独立抽样，热点key通常由一个请求在过期前刷新，不会同时争抢重建锁
+     * 始终返回已读取的数据，不再次查询Redis
      *
      * @param keyPrefix  key前缀
      * @param id         查询id
@@ -123,60 +410,78 @@ public class CacheClient {
     public <T, ID> T handleCacheBreakdown(String keyPrefix, ID id, Class<T> type,
                                           Function<ID, T> dbFallback, Long timeout, TimeUnit unit) {
         String key = keyPrefix + id;
+        long hits = hotKeyDetector.record(key);
         // 1、从Redis中查询店铺数据，并判断缓存是否命中
-        String jsonStr = stringRedisTemplate.opsForValue().get(key);
-        if (StrUtil.isBlank(jsonStr)) {
+        CacheCodecs.LogicalValue<T> value = getLogical(key, type);
+        if (value == null) {
             // 1.1 缓存未命中，直接返回失败信息
             return null;
         }
-        // 1.2 缓存命中，将JSON字符串反序列化未对象，并判断缓存数据是否逻辑过期
-        RedisData redisData = JSONUtil.toBean(jsonStr, RedisData.class);
-        // 这里需要先转成JSONObject再转成反序列化，否则可能无法正确映射Shop的字段
-        JSONObject data = (JSONObject) redisData.getData();
-        T t = JSONUtil.toBean(data, type);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        if (expireTime.isAfter(LocalDateTime.now())) {
-            // 当前缓存数据未过期，直接返回
+        // 1.2 缓存命中，判断缓存数据是否需要刷新（过期时间在头部，只解码一次数据）
+        T t = value.getData();
+        if (!shouldRefresh(value)) {
+            // 当前缓存数据未过期，且没有抽中提前刷新，直接返回
             return t;
         }
 
-        // 2、缓存数据已过期，获取互斥锁，并且重建缓存
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        if (isLock) {
-            // 获取锁成功，开启一个子线程去重建缓存
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 查询数据库
-                    T t1 = dbFallback.apply(id);
-                    // 将查询到的数据保存到Redis
-                    this.setWithLogicalExpire(key, t1, timeout, unit);
-                } finally {
-                    unlock(lockKey);
+        // 2、缓存数据已过期或即将过期，提交重建任务（当前节点同一个key只有一个任务，热点key、请求越多的key优先级越高）
+        long expireMillis = value.getExpireMillis();
+        rebuildScheduler.submit(key, Math.max(1, hits), () -> {
+            // 获取互斥锁，获取失败说明其它节点正在重建
+            String lockKey = LOCK_SHOP_KEY + id;
+            if (!tryLock(lockKey)) {
+                return;
+            }
+            try {
+                // 任务排队期间其它节点已经重建，不再重复查询数据库
+                CacheCodecs.LogicalValue<T> current = getLogical(key, type);
+                if (current != null && current.getExpireMillis() > expireMillis) {
+                    return;
                 }
-            });
-        }
+                long begin = System.currentTimeMillis();
+                // 查询数据库
+                T t1 = dbFallback.apply(id);
+                int costMillis = (int) Math.max(1, System.currentTimeMillis() - begin);
+                // 将查询到的数据保存到Redis，并记录重建耗时
+                this.setWithLogicalExpire(key, t1, timeout, unit, costMillis);
+            } finally {
+                unlock(lockKey);
+            }
+        });
 
-        // 3、获取锁失败，再次查询缓存，判断缓存是否重建（这里双检是有必要的）
-        jsonStr = stringRedisTemplate.opsForValue().get(key);
-        if (StrUtil.isBlank(jsonStr)) {
-            // 3.1 缓存未命中，直接返回失败信息
-            return null;
+        // 3、返回当前数据（已过期时为旧数据），重建完成后的请求读到新数据
+        return t;
+    }
+
+    /**
+     * 判断逻辑过期的数据是否需要重建：已过期，或按XFetch算法抽中提前刷新
+     *
+     * @param value
+     * @return
+     */
+    private boolean shouldRefresh(CacheCodecs.LogicalValue<?> value) {
+        if (value.isExpired()) {
+            return true;
         }
-        // 3.2 缓存命中，将JSON字符串反序列化未对象，并判断缓存数据是否逻辑过期
-        redisData = JSONUtil.toBean(jsonStr, RedisData.class);
-        // 这里需要先转成JSONObject再转成反序列化，否则可能无法正确映射Shop的字段
-        data = (JSONObject) redisData.getData();
-        t = JSONUtil.toBean(data, type);
-        expireTime = redisData.getExpireTime();
-        if (expireTime.isAfter(LocalDateTime.now())) {
-            // 当前缓存数据未过期，直接返回
-            return t;
+        if (refreshBeta <= 0 || value.getCostMillis() <= 0) {
+            return false;
         }
+        // 1 - nextDouble() 的范围是 (0, 1]，避免 ln(0)
+        double gap = value.getCostMillis() * refreshBeta * -Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        return System.currentTimeMillis() + gap >= value.getExpireMillis();
+    }
 
-        // 4、返回过期数据
-        return t;
-
+    /**
+     * 查询逻辑过期的数据
+     *
+     * @return 缓存未命中或无法解码时返回null
+     */
+    private <T> CacheCodecs.LogicalValue<T> getLogical(String key, Class<T> type) {
+        byte[] bytes = getBytes(key);
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        return cacheCodecs.decodeLogical(bytes, type);
     }
 
     /**
@@ -0,0 +1,41 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存数据的编码方式，CacheClient通过CacheCodecs选择写入时使用的编码方式，读取时按第一个字节识别编码方式
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码方式名称，对应配置 hmdp.cache.codec
+     *
+     * @return
+     */
+    String name();
+
+    /**
+     * 判断编码后的数据是否由当前编码方式写入
+     *
+     * @param first 编码后数据的第一个字节
+     * @return
+     */
+    boolean accepts(byte first);
+
+    /**
+     * 编码
+     *
+     * @param value 不为null
+     * @return
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码
+     *
+     * @param bytes
+     * @param offset 编码后的数据在bytes中的起始位置
+     * @param type
+     * @param <T>
+     * @return 数据的结构与当前类型不一致（例如类的字段发生了变化）时返回null
+     */
+    <T> T decode(byte[] bytes, int offset, Class<T> type);
+}
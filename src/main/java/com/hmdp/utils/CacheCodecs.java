@@ -0,0 +1,178 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 缓存编码方式：写入时使用 hmdp.cache.codec 配置的编码方式，读取时按第一个字节识别编码方式，切换配置后新旧数据都能读取
+ * 逻辑过期的数据格式：标记(1字节) + 过期时间(8字节毫秒时间戳) + [重建耗时(4字节毫秒)] + 编码后的数据，读取过期时间不需要解析数据
+ * 也兼容原来 RedisData 的JSON格式
+ */
+@Component
+public class CacheCodecs {
+
+    /**
+     * 逻辑过期数据的标记
+     */
+    public static final byte LOGICAL_EXPIRE_TAG = 0x02;
+
+    /**
+     * 带重建耗时的逻辑过期数据的标记，用于提前刷新
+     */
+    public static final byte LOGICAL_EXPIRE_COST_TAG = 0x03;
+
+    private static final int LOGICAL_EXPIRE_HEADER = 9;
+
+    private static final int LOGICAL_EXPIRE_COST_HEADER = 13;
+
+    private final List<CacheCodec> codecs;
+
+    private final CacheCodec writeCodec;
+
+    public CacheCodecs(@Value("${hmdp.cache.codec:json}") String codec) {
+        JsonCacheCodec json = new JsonCacheCodec();
+        this.codecs = Arrays.asList(new BinaryCacheCodec(json), json);
+        this.writeCodec = codecs.stream()
+                .filter(c -> c.name().equalsIgnoreCase(codec))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("未知的缓存编码方式：" + codec));
+    }
+
+    public byte[] encode(Object value) {
+        return writeCodec.encode(value);
+    }
+
+    /**
+     * 解码
+     *
+     * @param bytes 不为空
+     * @param type
+     * @param <T>
+     * @return 无法解码（例如类的字段发生了变化）时返回null
+     */
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        return decode(bytes, 0, type);
+    }
+
+    private <T> T decode(byte[] bytes, int offset, Class<T> type) {
+        for (CacheCodec codec : codecs) {
+            if (codec.accepts(bytes[offset])) {
+                return codec.decode(bytes, offset, type);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 编码逻辑过期的数据
+     *
+     * @param value        可以为null
+     * @param expireMillis 逻辑过期时间（毫秒时间戳）
+     * @return
+     */
+    public byte[] encodeLogical(Object value, long expireMillis) {
+        return encodeLogical(value, expireMillis, 0);
+    }
+
+    /**
+     * 编码逻辑过期的数据，同时记录重建耗时
+     *
+     * @param value        可以为null
+     * @param expireMillis 逻辑过期时间（毫秒时间戳）
+     * @param costMillis   重建耗时（毫秒），为0时不记录，格式与不带耗时的数据相同
+     * @return
+     */
+    public byte[] encodeLogical(Object value, long expireMillis, int costMillis) {
+        byte[] data = value == null ? new byte[0] : writeCodec.encode(value);
+        int header = costMillis > 0 ? LOGICAL_EXPIRE_COST_HEADER : LOGICAL_EXPIRE_HEADER;
+        byte[] bytes = new byte[header + data.length];
+        bytes[0] = costMillis > 0 ? LOGICAL_EXPIRE_COST_TAG : LOGICAL_EXPIRE_TAG;
+        for (int i = 0; i < 8; i++) {
+            bytes[1 + i] = (byte) (expireMillis >>> (56 - 8 * i));
+        }
+        if (costMillis > 0) {
+            for (int i = 0; i < 4; i++) {
+                bytes[LOGICAL_EXPIRE_HEADER + i] = (byte) (costMillis >>> (24 - 8 * i));
+            }
+        }
+        System.arraycopy(data, 0, bytes, header, data.length);
+        return bytes;
+    }
+
+    /**
+     * 解码逻辑过期的数据
+     *
+     * @param bytes 不为空
+     * @param type
+     * @param <T>
+     * @return 无法解码时返回null，数据为null时返回的LogicalValue中的数据为null
+     */
+    public <T> LogicalValue<T> decodeLogical(byte[] bytes, Class<T> type) {
+        if (bytes[0] != LOGICAL_EXPIRE_TAG && bytes[0] != LOGICAL_EXPIRE_COST_TAG) {
+            // 原来的格式：{"expireTime": ..., "data": {...}}
+            RedisData redisData = JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), RedisData.class);
+            T data = redisData.getData() == null ? null : JSONUtil.toBean((JSONObject) redisData.getData(), type);
+            long expireMillis = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            return new LogicalValue<>(data, expireMillis, 0);
+        }
+        long expireMillis = 0;
+        for (int i = 1; i < LOGICAL_EXPIRE_HEADER; i++) {
+            expireMillis = (expireMillis << 8) | (bytes[i] & 0xFF);
+        }
+        int header = LOGICAL_EXPIRE_HEADER;
+        int costMillis = 0;
+        if (bytes[0] == LOGICAL_EXPIRE_COST_TAG) {
+            header = LOGICAL_EXPIRE_COST_HEADER;
+            for (int i = LOGICAL_EXPIRE_HEADER; i < header; i++) {
+                costMillis = (costMillis << 8) | (bytes[i] & 0xFF);
+            }
+        }
+        if (bytes.length == header) {
+            // 数据为null
+            return new LogicalValue<>(null, expireMillis, costMillis);
+        }
+        T data = decode(bytes, header, type);
+        return data == null ? null : new LogicalValue<>(data, expireMillis, costMillis);
+    }
+
+    /**
+     * 逻辑过期的数据
+     */
+    public static class LogicalValue<T> {
+        private final T data;
+        private final long expireMillis;
+        private final int costMillis;
+
+        private LogicalValue(T data, long expireMillis, int costMillis) {
+            this.data = data;
+            this.expireMillis = expireMillis;
+            this.costMillis = costMillis;
+        }
+
+        public T getData() {
+            return data;
+        }
+
+        public long getExpireMillis() {
+            return expireMillis;
+        }
+
+        /**
+         * 上次重建的耗时（毫秒），未记录时为0
+         */
+        public int getCostMillis() {
+            return costMillis;
+        }
+
+        public boolean isExpired() {
+            return expireMillis <= System.currentTimeMillis();
+        }
+    }
+}
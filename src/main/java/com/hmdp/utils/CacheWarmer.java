@@ -0,0 +1,304 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE;
+import static com.hmdp.utils.RedisConstants.LOCK_CACHE_WARM_UP_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+
+/**
+ * 启动时预热缓存，避免发布后冷启动的请求全部打到数据库
+ * 1、店铺类型列表：cache:shop-type
+ * 2、店铺：按id游标分批读取 tb_shop，不一次性加载整张表；每批由多个线程并行通过管道写入 cache:shop:{id} 和 shop:geo:{typeId}
+ * 3、秒杀券：所有秒杀券写入元数据（已结束的秒杀券同样需要有效期才能被秒杀脚本拒绝）；
+ *    进行中和未开始的秒杀券库存不存在时（例如Redis数据丢失）按数据库库存初始化，已存在的库存不覆盖
+ * hold-readiness 为true时在ApplicationRunner中同步执行，预热完成之后应用才进入 ACCEPTING_TRAFFIC 状态
+ * 多个节点同时启动时，min-interval-millis 内只有一个节点执行预热
+ * 秒杀券元数据是秒杀脚本校验有效期所必需的，未启用预热时也会在启动时写入
+ */
+@Slf4j
+@Component
+public class CacheWarmer implements ApplicationRunner {
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private SeckillClient seckillClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 是否在启动时预热
+     */
+    @Value("${hmdp.warm-up.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 是否等待预热完成后才接收流量，false则在后台线程中预热
+     */
+    @Value("${hmdp.warm-up.hold-readiness:true}")
+    private boolean holdReadiness;
+
+    /**
+     * 每批读取的店铺数量
+     */
+    @Value("${hmdp.warm-up.chunk-size:500}")
+    private int chunkSize;
+
+    /**
+     * 并行写入Redis的线程数
+     */
+    @Value("${hmdp.warm-up.parallelism:4}")
+    private int parallelism;
+
+    /**
+     * 店铺缓存的格式，plain：与 handleCachePenetration 相同；logical：逻辑过期，与 handleCacheBreakdown 相同
+     */
+    @Value("${hmdp.warm-up.shop-mode:plain}")
+    private String shopMode;
+
+    /**
+     * 店铺缓存有效期随机增加的比例，避免预热的数据同时过期
+     */
+    @Value("${hmdp.warm-up.ttl-jitter:0.2}")
+    private double ttlJitter;
+
+    /**
+     * 两次预热的最小间隔
+     */
+    @Value("${hmdp.warm-up.min-interval-millis:600000}")
+    private long minIntervalMillis;
+
+    /**
+     * 预热状态：DISABLED、PENDING、RUNNING、DONE、SKIPPED、FAILED
+     */
+    private volatile String status = "PENDING";
+
+    private volatile long totalShops;
+    private volatile long beginMillis;
+    private volatile long endMillis;
+
+    /**
+     * 已写入的店铺数量、GEO成员数量、写入失败的批次数量、秒杀券数量、初始化库存的秒杀券数量
+     */
+    private final AtomicLong shops = new AtomicLong();
+    private final AtomicLong geoMembers = new AtomicLong();
+    private final AtomicLong failedChunks = new AtomicLong();
+    private final AtomicLong vouchers = new AtomicLong();
+    private final AtomicLong stockRestored = new AtomicLong();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            status = "DISABLED";
+            warmSeckillVouchers();
+            return;
+        }
+        if (holdReadiness) {
+            warmUp();
+            return;
+        }
+        Thread thread = new Thread(this::warmUp, "cache-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void warmUp() {
+        // 多个节点同时启动时只有一个节点预热
+        Boolean locked = stringRedisTemplate.opsForValue()
+                .setIfAbsent(LOCK_CACHE_WARM_UP_KEY, "1", minIntervalMillis, TimeUnit.MILLISECONDS);
+        if (!Boolean.TRUE.equals(locked)) {
+            status = "SKIPPED";
+            log.info("其它节点已在{}ms内预热缓存，跳过预热", minIntervalMillis);
+            return;
+        }
+        status = "RUNNING";
+        beginMillis = System.currentTimeMillis();
+        // 秒杀券元数据是秒杀脚本校验有效期所必需的，先单独写入，不受店铺预热失败的影响
+        boolean vouchersWarmed = false;
+        try {
+            warmSeckillVouchers();
+            vouchersWarmed = true;
+        } catch (Exception e) {
+            log.error("预热秒杀券失败", e);
+        }
+        try {
+            warmShopTypes();
+            warmShops();
+            status = vouchersWarmed && failedChunks.get() == 0 ? "DONE" : "FAILED";
+        } catch (Exception e) {
+            status = "FAILED";
+            log.error("预热缓存失败", e);
+        } finally {
+            endMillis = System.currentTimeMillis();
+        }
+        if (!"DONE".equals(status)) {
+            // 预热失败，允许其它节点重新预热
+            stringRedisTemplate.delete(LOCK_CACHE_WARM_UP_KEY);
+        }
+        log.info("预热缓存结束：{}", stats());
+    }
+
+    private void warmShopTypes() {
+        List<ShopType> shopTypes = shopTypeService.query().orderByAsc("sort").list();
+        stringRedisTemplate.opsForValue().set(CACHE_SHOP_TYPE, JSONUtil.toJsonStr(shopTypes),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 读取线程按id游标分批读取，写入线程池的队列有上限，写入跟不上时由读取线程自己写入，内存中最多只有几批数据
+     */
+    private void warmShops() throws InterruptedException {
+        totalShops = shopService.count();
+        int threads = Math.max(1, parallelism);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads), new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            long lastId = 0;
+            while (true) {
+                List<Shop> chunk = shopService.list(new LambdaQueryWrapper<Shop>()
+                        .gt(Shop::getId, lastId)
+                        .orderByAsc(Shop::getId)
+                        .last("limit " + chunkSize));
+                if (chunk.isEmpty()) {
+                    break;
+                }
+                executor.execute(() -> writeShops(chunk));
+                if (chunk.size() < chunkSize) {
+                    break;
+                }
+                lastId = chunk.get(chunk.size() - 1).getId();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 写入一批店铺：一次管道写入店铺缓存，一次管道写入GEO
+     */
+    private void writeShops(List<Shop> chunk) {
+        try {
+            Map<Long, Shop> values = new LinkedHashMap<>(chunk.size() * 2);
+            Map<Long, Map<byte[], Point>> geo = new HashMap<>();
+            for (Shop shop : chunk) {
+                values.put(shop.getId(), shop);
+                if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+                    geo.computeIfAbsent(shop.getTypeId(), k -> new HashMap<>())
+                            .put(shop.getId().toString().getBytes(StandardCharsets.UTF_8), new Point(shop.getX(), shop.getY()));
+                }
+            }
+            // 每批使用不同的有效期，避免预热的数据同时过期
+            long ttlMillis = (long) (TimeUnit.MINUTES.toMillis(CACHE_SHOP_TTL)
+                    * (1 + ThreadLocalRandom.current().nextDouble() * ttlJitter));
+            if ("logical".equalsIgnoreCase(shopMode)) {
+                cacheClient.setAllWithLogicalExpire(CACHE_SHOP_KEY, values, ttlMillis, TimeUnit.MILLISECONDS);
+            } else {
+                cacheClient.setAll(CACHE_SHOP_KEY, values, ttlMillis, TimeUnit.MILLISECONDS);
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Map.Entry<Long, Map<byte[], Point>> entry : geo.entrySet()) {
+                    connection.geoAdd((SHOP_GEO_KEY + entry.getKey()).getBytes(StandardCharsets.UTF_8), entry.getValue());
+                }
+                return null;
+            });
+            geo.values().forEach(members -> geoMembers.addAndGet(members.size()));
+            long done = shops.addAndGet(chunk.size());
+            // 每完成约10%输出一次进度
+            long step = Math.max(chunkSize, totalShops / 10);
+            if ((done - chunk.size()) / step != done / step || done >= totalShops) {
+                log.info("预热店铺：{}/{}，耗时{}ms", done, totalShops, System.currentTimeMillis() - beginMillis);
+            }
+        } catch (Exception e) {
+            failedChunks.incrementAndGet();
+            log.error("预热店铺失败，id：{} ~ {}", chunk.get(0).getId(), chunk.get(chunk.size() - 1).getId(), e);
+        }
+    }
+
+    /**
+     * 所有秒杀券写入元数据，进行中和未开始的秒杀券库存不存在时初始化
+     */
+    private void warmSeckillVouchers() {
+        long lastVoucherId = 0;
+        LocalDateTime now = LocalDateTime.now();
+        while (true) {
+            List<SeckillVoucher> seckillVouchers = seckillVoucherService.list(new LambdaQueryWrapper<SeckillVoucher>()
+                    .gt(SeckillVoucher::getVoucherId, lastVoucherId)
+                    .orderByAsc(SeckillVoucher::getVoucherId)
+                    .last("limit " + chunkSize));
+            for (SeckillVoucher seckillVoucher : seckillVouchers) {
+                seckillClient.saveVoucher(seckillVoucher);
+                boolean ended = seckillVoucher.getEndTime() != null && !seckillVoucher.getEndTime().isAfter(now);
+                if (!ended && seckillClient.setStockIfAbsent(seckillVoucher.getVoucherId(), seckillVoucher.getStock())) {
+                    stockRestored.incrementAndGet();
+                }
+                vouchers.incrementAndGet();
+            }
+            if (seckillVouchers.size() < chunkSize) {
+                break;
+            }
+            lastVoucherId = seckillVouchers.get(seckillVouchers.size() - 1).getVoucherId();
+        }
+    }
+
+    /**
+     * 预热进度
+     *
+     * @return
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("status", status);
+        stats.put("totalShops", totalShops);
+        stats.put("shops", shops.get());
+        stats.put("geoMembers", geoMembers.get());
+        stats.put("failedChunks", failedChunks.get());
+        stats.put("vouchers", vouchers.get());
+        stats.put("stockRestored", stockRestored.get());
+        long end = "RUNNING".equals(status) ? System.currentTimeMillis() : endMillis;
+        stats.put("elapsedMillis", beginMillis == 0 ? 0 : end - beginMillis);
+        return stats;
+    }
+}
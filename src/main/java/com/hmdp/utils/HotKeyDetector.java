@@ -0,0 +1,213 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.Collectors;
+
+/**
+ * 热点key探测：按采样比例统计每个key最近一段时间的访问次数，超过阈值的key为热点key
+ * 访问次数使用count-min sketch统计，内存固定，与key的数量无关；统计窗口划分为多个格子，定时滚动清空最旧的一格
+ * 热点key由CacheClient短暂缓存在本地（见 LocalCache.putHot），并提高重建任务的优先级
+ */
+@Component
+public class HotKeyDetector {
+
+    /**
+     * 是否启用热点key探测
+     */
+    @Value("${hmdp.cache.hot-key.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 采样比例，(0, 1]，统计的次数按比例换算为访问次数
+     */
+    @Value("${hmdp.cache.hot-key.sample-rate:1.0}")
+    private double sampleRate;
+
+    /**
+     * 统计窗口的格数，窗口长度 = slots * slot-millis
+     */
+    @Value("${hmdp.cache.hot-key.slots:10}")
+    private int slots;
+
+    /**
+     * count-min sketch每行的计数器数量（取不小于该值的2的幂）和行数
+     */
+    @Value("${hmdp.cache.hot-key.width:4096}")
+    private int width;
+
+    @Value("${hmdp.cache.hot-key.depth:4}")
+    private int depth;
+
+    /**
+     * 窗口内访问次数达到该值为热点key
+     */
+    @Value("${hmdp.cache.hot-key.threshold:1000}")
+    private long threshold;
+
+    /**
+     * 最多记录的热点key数量
+     */
+    @Value("${hmdp.cache.hot-key.max-tracked:1000}")
+    private int maxTracked;
+
+    /**
+     * 每一格的计数器，depth行 * width列
+     */
+    private AtomicIntegerArray[] sketches;
+
+    private int mask;
+
+    /**
+     * 当前写入的格子
+     */
+    private volatile int current;
+
+    /**
+     * 热点key -> 窗口内的访问次数
+     */
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        int w = Integer.highestOneBit(Math.max(15, width - 1)) << 1;
+        mask = w - 1;
+        sketches = new AtomicIntegerArray[Math.max(1, slots)];
+        for (int i = 0; i < sketches.length; i++) {
+            sketches[i] = new AtomicIntegerArray(Math.max(1, depth) * w);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 记录一次访问
+     *
+     * @param key
+     * @return 窗口内的访问次数（估计值，只会偏大），未启用时返回0
+     */
+    public long record(String key) {
+        if (!enabled) {
+            return 0;
+        }
+        if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            // 未被采样，只返回已知热点key的次数
+            return hotKeys.getOrDefault(key, 0L);
+        }
+        int h1 = key.hashCode();
+        int h2 = spread(h1);
+        AtomicIntegerArray sketch = sketches[current];
+        int rows = sketch.length() / (mask + 1);
+        for (int row = 0; row < rows; row++) {
+            sketch.incrementAndGet(index(row, h1, h2));
+        }
+        long count = estimate(h1, h2, rows);
+        if (count >= threshold && (hotKeys.size() < maxTracked || hotKeys.containsKey(key))) {
+            hotKeys.put(key, count);
+        }
+        return count;
+    }
+
+    /**
+     * 判断访问次数是否达到热点key的阈值
+     *
+     * @param count record返回的访问次数
+     * @return
+     */
+    public boolean isHot(long count) {
+        return enabled && count >= threshold;
+    }
+
+    /**
+     * 窗口内访问次数最多的热点key
+     *
+     * @param limit
+     * @return key、访问次数，按访问次数从多到少排序
+     */
+    public List<Map<String, Object>> topK(int limit) {
+        return hotKeys.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(limit)
+                .map(e -> {
+                    Map<String, Object> item = new LinkedHashMap<>();
+                    item.put("key", e.getKey());
+                    item.put("count", e.getValue());
+                    return item;
+                })
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 滚动窗口：清空最旧的一格作为新的当前格，并移除不再是热点的key
+     */
+    @Scheduled(fixedRateString = "${hmdp.cache.hot-key.slot-millis:1000}")
+    public void rotate() {
+        if (!enabled) {
+            return;
+        }
+        int next = (current + 1) % sketches.length;
+        AtomicIntegerArray sketch = sketches[next];
+        for (int i = 0; i < sketch.length(); i++) {
+            sketch.set(i, 0);
+        }
+        current = next;
+        int rows = sketch.length() / (mask + 1);
+        for (String key : new ArrayList<>(hotKeys.keySet())) {
+            int h1 = key.hashCode();
+            long count = estimate(h1, spread(h1), rows);
+            if (count < threshold) {
+                hotKeys.remove(key);
+            } else {
+                hotKeys.put(key, count);
+            }
+        }
+    }
+
+    /**
+     * 各行中窗口内所有格子计数之和的最小值，按采样比例换算
+     */
+    private long estimate(int h1, int h2, int rows) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < rows; row++) {
+            int index = index(row, h1, h2);
+            long sum = 0;
+            for (AtomicIntegerArray sketch : sketches) {
+                sum += sketch.get(index);
+            }
+            min = Math.min(min, sum);
+        }
+        return sampleRate < 1 ? (long) (min / sampleRate) : min;
+    }
+
+    /**
+     * 第row行的计数器下标，使用两个哈希值组合出各行的哈希
+     */
+    private int index(int row, int h1, int h2) {
+        return row * (mask + 1) + ((h1 + row * h2) & mask);
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        // 第二个哈希为奇数，保证各行的下标不同
+        return h | 1;
+    }
+}
@@ -0,0 +1,321 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IShopService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_ADD_CHANNEL;
+import static com.hmdp.utils.RedisConstants.BLOOM_REBUILD_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+
+/**
+ * 店铺、探店笔记id的布隆过滤器，防止查询不存在的id时穿透到Redis和数据库
+ * 每个节点在内存中保存一份，启动后按id游标分页读取数据库构建，之后定时重建（同时按最新的数据量调整大小）
+ * 新增数据时通过Redis发布订阅通知所有节点添加id；重建期间新增的id同时添加到新旧两个过滤器，重建完成后替换
+ * 构建完成之前所有id都判断为可能存在
+ */
+@Slf4j
+@Component
+public class IdBloomFilters implements MessageListener {
+
+    public static final String SHOP = "shop";
+    public static final String BLOG = "blog";
+
+    /**
+     * 缓存key前缀 -> 过滤器名称，CacheClient按key前缀查询对应的过滤器
+     */
+    private static final Map<String, String> KEY_PREFIXES = Collections.singletonMap(CACHE_SHOP_KEY, SHOP);
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    @Lazy
+    @Resource
+    private IShopService shopService;
+
+    @Lazy
+    @Resource
+    private IBlogService blogService;
+
+    /**
+     * 是否启用布隆过滤器
+     */
+    @Value("${hmdp.bloom.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 目标误判率
+     */
+    @Value("${hmdp.bloom.false-positive-rate:0.001}")
+    private double falsePositiveRate;
+
+    /**
+     * 预计元素数量 = max(最小预计数量, 当前数据量 * 增长系数)，为重建之前的新增数据预留空间
+     */
+    @Value("${hmdp.bloom.min-expected-insertions:100000}")
+    private long minExpectedInsertions;
+
+    @Value("${hmdp.bloom.growth-factor:2}")
+    private double growthFactor;
+
+    /**
+     * 构建时每次从数据库读取的id数量
+     */
+    @Value("${hmdp.bloom.page-size:5000}")
+    private int pageSize;
+
+    private final Map<String, Holder> holders = new LinkedHashMap<>();
+
+    /**
+     * 构建过滤器的线程，避免阻塞定时任务线程和发布订阅的消息处理线程
+     */
+    private final ExecutorService rebuildExecutor = Executors.newSingleThreadExecutor();
+
+    public IdBloomFilters(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        holders.put(SHOP, new Holder());
+        holders.put(BLOG, new Holder());
+    }
+
+    @PostConstruct
+    private void init() {
+        if (enabled) {
+            listenerContainer.addMessageListener(this,
+                    Arrays.asList(new ChannelTopic(BLOOM_ADD_CHANNEL), new ChannelTopic(BLOOM_REBUILD_CHANNEL)));
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        rebuildExecutor.shutdownNow();
+    }
+
+    /**
+     * 判断id是否可能存在，未启用或者尚未构建完成时返回true
+     *
+     * @param name SHOP、BLOG
+     * @param id
+     * @return false：id一定不存在
+     */
+    public boolean mightContain(String name, Long id) {
+        if (!enabled || id == null) {
+            return true;
+        }
+        Holder holder = holders.get(name);
+        BloomFilter filter = holder.current;
+        if (filter == null || filter.mightContain(id)) {
+            return true;
+        }
+        holder.rejected.increment();
+        return false;
+    }
+
+    /**
+     * 按缓存key前缀判断id是否可能存在，没有对应过滤器的key前缀返回true
+     *
+     * @param keyPrefix
+     * @param id
+     * @return false：id一定不存在
+     */
+    public boolean mightContainKey(String keyPrefix, Object id) {
+        String name = KEY_PREFIXES.get(keyPrefix);
+        if (name == null || !(id instanceof Long)) {
+            return true;
+        }
+        return mightContain(name, (Long) id);
+    }
+
+    /**
+     * 新增数据后通知所有节点（包括当前节点）添加id，需要在数据写入数据库之后调用
+     *
+     * @param name
+     * @param id
+     */
+    public void publishAdd(String name, Long id) {
+        if (enabled) {
+            add(name, id);
+        }
+        // 当前节点未启用也要发布，其它节点可能启用了布隆过滤器
+        stringRedisTemplate.convertAndSend(BLOOM_ADD_CHANNEL, name + ":" + id);
+    }
+
+    /**
+     * 通知所有节点重建过滤器
+     *
+     * @param name
+     */
+    public void publishRebuild(String name) {
+        if (!holders.containsKey(name)) {
+            throw new IllegalArgumentException("未知的布隆过滤器：" + name);
+        }
+        stringRedisTemplate.convertAndSend(BLOOM_REBUILD_CHANNEL, name);
+    }
+
+    /**
+     * 启动后立即构建，之后定时重建
+     */
+    @Scheduled(fixedDelayString = "${hmdp.bloom.rebuild-millis:3600000}")
+    public void rebuildAll() {
+        if (!enabled) {
+            return;
+        }
+        for (String name : holders.keySet()) {
+            rebuildExecutor.execute(() -> rebuild(name));
+        }
+    }
+
+    /**
+     * 重建过滤器：按当前数据量创建新的过滤器，先登记为构建中再读取数据库，构建完成后替换当前过滤器
+     */
+    private void rebuild(String name) {
+        Holder holder = holders.get(name);
+        try {
+            long begin = System.currentTimeMillis();
+            long count = count(name);
+            BloomFilter filter = new BloomFilter(
+                    Math.max(minExpectedInsertions, (long) (count * growthFactor)), falsePositiveRate);
+            holder.building = filter;
+            long lastId = 0;
+            List<Long> ids;
+            do {
+                ids = pageIds(name, lastId);
+                for (Long id : ids) {
+                    filter.add(id);
+                }
+                if (!ids.isEmpty()) {
+                    lastId = ids.get(ids.size() - 1);
+                }
+            } while (ids.size() == pageSize);
+            holder.current = filter;
+            log.info("布隆过滤器{}构建完成：{}个id，位数组{}位，{}个哈希函数，耗时{}ms", name, filter.getInsertions(),
+                    filter.getBitSize(), filter.getHashes(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("构建布隆过滤器{}异常", name, e);
+        } finally {
+            holder.building = null;
+        }
+    }
+
+    private void add(String name, Long id) {
+        Holder holder = holders.get(name);
+        if (holder == null) {
+            return;
+        }
+        // 先添加到构建中的过滤器，再添加到当前过滤器，替换前后都不会漏掉
+        BloomFilter building = holder.building;
+        if (building != null) {
+            building.add(id);
+        }
+        BloomFilter current = holder.current;
+        if (current != null) {
+            current.add(id);
+        }
+    }
+
+    private long count(String name) {
+        return SHOP.equals(name) ? shopService.count() : blogService.count();
+    }
+
+    /**
+     * WHERE id > ? ORDER BY id LIMIT n
+     */
+    private List<Long> pageIds(String name, long lastId) {
+        if (SHOP.equals(name)) {
+            return shopService.list(new LambdaQueryWrapper<Shop>()
+                            .select(Shop::getId)
+                            .gt(Shop::getId, lastId)
+                            .orderByAsc(Shop::getId)
+                            .last("limit " + pageSize))
+                    .stream().map(Shop::getId).collect(Collectors.toList());
+        }
+        return blogService.list(new LambdaQueryWrapper<Blog>()
+                        .select(Blog::getId)
+                        .gt(Blog::getId, lastId)
+                        .orderByAsc(Blog::getId)
+                        .last("limit " + pageSize))
+                .stream().map(Blog::getId).collect(Collectors.toList());
+    }
+
+    /**
+     * 各个过滤器的大小、已添加的id数量和拦截的请求数量
+     *
+     * @return
+     */
+    public Map<String, Map<String, Object>> stats() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        for (Map.Entry<String, Holder> entry : holders.entrySet()) {
+            Map<String, Object> stat = new LinkedHashMap<>();
+            BloomFilter filter = entry.getValue().current;
+            stat.put("ready", filter != null);
+            if (filter != null) {
+                stat.put("expectedInsertions", filter.getExpectedInsertions());
+                stat.put("falsePositiveRate", filter.getFalsePositiveRate());
+                stat.put("bitSize", filter.getBitSize());
+                stat.put("hashes", filter.getHashes());
+                stat.put("insertions", filter.getInsertions());
+            }
+            stat.put("rebuilding", entry.getValue().building != null);
+            stat.put("rejected", entry.getValue().rejected.sum());
+            stats.put(entry.getKey(), stat);
+        }
+        return stats;
+    }
+
+    /**
+     * 处理添加id、重建消息
+     *
+     * @param message
+     * @param pattern
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (BLOOM_REBUILD_CHANNEL.equals(channel)) {
+            if (holders.containsKey(body)) {
+                rebuildExecutor.execute(() -> rebuild(body));
+            }
+            return;
+        }
+        int index = body.lastIndexOf(':');
+        try {
+            add(body.substring(0, index), Long.valueOf(body.substring(index + 1)));
+        } catch (RuntimeException e) {
+            log.error("无效的布隆过滤器消息: {}", body);
+        }
+    }
+
+    private static class Holder {
+        private volatile BloomFilter current;
+        private volatile BloomFilter building;
+        private final LongAdder rejected = new LongAdder();
+    }
+}
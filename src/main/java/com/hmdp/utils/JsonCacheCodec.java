@@ -0,0 +1,36 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JSON编码，与原来 JSONUtil.toJsonStr 写入的数据格式相同
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    public static final String NAME = "json";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    /**
+     * JSON的第一个字节都是可见字符
+     */
+    @Override
+    public boolean accepts(byte first) {
+        return first >= ' ';
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, int offset, Class<T> type) {
+        return JSONUtil.toBean(new String(bytes, offset, bytes.length - offset, StandardCharsets.UTF_8), type);
+    }
+}
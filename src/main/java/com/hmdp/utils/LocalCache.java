@@ -0,0 +1,185 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * 本地缓存（一级缓存），Redis为二级缓存
+ * 热点数据直接从JVM内返回已反序列化的对象，不访问Redis也不解析JSON
+ * 容量有上限，超过后淘汰最久未使用的数据；每条数据的有效期不超过Redis有效期的一半
+ * 未启用时，热点key探测发现的热点key仍会短暂缓存在本地（见 putHot）
+ * 删除缓存时通过Redis发布订阅通知所有节点清除本地缓存
+ * 注意：返回的是缓存中的同一个对象，调用方不能修改
+ */
+@Component
+public class LocalCache implements MessageListener {
+
+    /**
+     * 缓存的空值，对应Redis中的空字符串
+     */
+    public static final Object NULL_VALUE = new Object();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * 是否启用本地缓存
+     */
+    @Value("${hmdp.cache.local.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 本地缓存最多保存的数据条数
+     */
+    @Value("${hmdp.cache.local.capacity:10000}")
+    private int capacity;
+
+    /**
+     * 本地缓存的最长有效期（毫秒）
+     */
+    @Value("${hmdp.cache.local.max-ttl-millis:5000}")
+    private long maxTtlMillis;
+
+    /**
+     * 是否启用热点key探测，启用后热点key在本地短暂缓存
+     */
+    @Value("${hmdp.cache.hot-key.enabled:false}")
+    private boolean hotKeyEnabled;
+
+    /**
+     * 热点key在本地缓存的有效期（毫秒）
+     */
+    @Value("${hmdp.cache.hot-key.local-ttl-millis:1000}")
+    private long hotTtlMillis;
+
+    /**
+     * 未启用本地缓存也未启用热点key探测时为null
+     */
+    private LRUCache<String, Object> cache;
+
+    /**
+     * 收到的清除消息数量，用于丢弃清除之前从Redis读到的旧数据
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public LocalCache(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!enabled && !hotKeyEnabled) {
+            return;
+        }
+        cache = CacheUtil.newLRUCache(capacity, maxTtlMillis);
+        listenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 查询本地缓存
+     *
+     * @param key
+     * @return 缓存的数据，空值返回NULL_VALUE，未命中返回null
+     */
+    public Object get(String key) {
+        return cache != null ? cache.get(key) : null;
+    }
+
+    /**
+     * 获取当前的清除版本，需要在查询Redis之前获取
+     *
+     * @return
+     */
+    public long version() {
+        return invalidations.get();
+    }
+
+    /**
+     * 写入本地缓存，如果查询Redis之后发生过清除，则不写入，避免缓存已被删除的旧数据
+     *
+     * @param key
+     * @param value          数据，空值使用NULL_VALUE
+     * @param redisTtlMillis 数据在Redis中的有效期
+     * @param version        查询Redis之前获取的清除版本
+     */
+    public void put(String key, Object value, long redisTtlMillis, long version) {
+        if (enabled) {
+            doPut(key, value, Math.min(maxTtlMillis, redisTtlMillis / 2), version);
+        }
+    }
+
+    /**
+     * 写入热点key，未启用本地缓存时也写入，有效期为 hot-key.local-ttl-millis，同样不超过Redis有效期的一半
+     *
+     * @param key
+     * @param value          数据，空值使用NULL_VALUE
+     * @param redisTtlMillis 数据在Redis中的有效期
+     * @param version        查询Redis之前获取的清除版本
+     */
+    public void putHot(String key, Object value, long redisTtlMillis, long version) {
+        if (cache != null) {
+            long ttl = Math.max(hotTtlMillis, enabled ? maxTtlMillis : 0);
+            doPut(key, value, Math.min(ttl, redisTtlMillis / 2), version);
+        }
+    }
+
+    private void doPut(String key, Object value, long ttl, long version) {
+        if (ttl <= 0 || invalidations.get() != version) {
+            return;
+        }
+        cache.put(key, value, ttl);
+        if (invalidations.get() != version) {
+            // 写入期间发生了清除
+            cache.remove(key);
+        }
+    }
+
+    /**
+     * 通知所有节点（包括当前节点）清除本地缓存，需要在删除Redis缓存之后调用
+     *
+     * @param key
+     */
+    public void publishInvalidate(String key) {
+        if (cache != null) {
+            invalidate(key);
+        }
+        // 当前节点未启用也要发布，其它节点可能启用了本地缓存
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    private void invalidate(String key) {
+        // 先递增版本再清除，防止清除之前从Redis读到的数据重新写入
+        invalidations.incrementAndGet();
+        cache.remove(key);
+    }
+
+    /**
+     * 处理清除本地缓存的消息
+     *
+     * @param message
+     * @param pattern
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        invalidate(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,153 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 订单环形缓冲区：创建时一次性分配 容量 * 6 个long，之后不再创建任何对象
+ * 每条订单占6个long：订单id、用户id、优惠券id、消息队列下标、消息id的时间戳部分、消息id的序号部分
+ * 内存占用固定为 容量 * 48 字节，与 LinkedBlockingQueue<MapRecord> 相比没有节点对象、装箱的Long和Map
+ */
+public class OrderRingBuffer {
+
+    public static final int FIELDS = 6;
+
+    public static final int ORDER_ID = 0;
+    public static final int USER_ID = 1;
+    public static final int VOUCHER_ID = 2;
+    public static final int STREAM = 3;
+    public static final int STREAM_MILLIS = 4;
+    public static final int STREAM_SEQ = 5;
+
+    private final long[] slots;
+
+    private final int capacity;
+
+    /**
+     * 下一条要读取的订单位置
+     */
+    private int head;
+
+    /**
+     * 当前订单数量
+     */
+    private int count;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private final Condition notFull = lock.newCondition();
+
+    public OrderRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.slots = new long[capacity * FIELDS];
+    }
+
+    /**
+     * 写入一条订单，缓冲区满时最多等待timeout
+     *
+     * @return 是否写入成功
+     */
+    public boolean offer(long orderId, long userId, long voucherId, int stream, long streamMillis, long streamSeq,
+                         long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            int base = ((head + count) % capacity) * FIELDS;
+            slots[base + ORDER_ID] = orderId;
+            slots[base + USER_ID] = userId;
+            slots[base + VOUCHER_ID] = voucherId;
+            slots[base + STREAM] = stream;
+            slots[base + STREAM_MILLIS] = streamMillis;
+            slots[base + STREAM_SEQ] = streamSeq;
+            count++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 等待缓冲区中有订单，最多等待timeout
+     *
+     * @return 缓冲区中是否有订单
+     */
+    public boolean awaitNotEmpty(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取出订单，从dest的第offset条订单的位置开始写入，不等待
+     *
+     * @param dest   长度至少为 (offset + maxOrders) * FIELDS
+     * @param offset dest中已有的订单数量
+     * @param maxOrders 最多取出的订单数量
+     * @return 取出的订单数量
+     */
+    public int drainTo(long[] dest, int offset, int maxOrders) {
+        lock.lock();
+        try {
+            int n = Math.min(count, maxOrders);
+            for (int i = 0; i < n; i++) {
+                System.arraycopy(slots, ((head + i) % capacity) * FIELDS, dest, (offset + i) * FIELDS, FIELDS);
+            }
+            head = (head + n) % capacity;
+            count -= n;
+            if (n > 0) {
+                notFull.signalAll();
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 最早一条订单进入消息队列的时间（毫秒），缓冲区为空时返回0
+     */
+    public long headStreamMillis() {
+        lock.lock();
+        try {
+            return count == 0 ? 0 : slots[head * FIELDS + STREAM_MILLIS];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,237 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 缓存重建调度器，替代原来无界队列的重建线程池
+ * 1、同一个key同时只有一个等待或正在执行的重建任务，重复提交时只提高等待中任务的优先级
+ * 2、等待队列有上限，队列满时丢弃最早提交的任务（逻辑过期的数据仍可返回旧值，下次读取时会重新提交）
+ * 3、优先级高（请求多的热点key）的任务先执行，优先级相同时先提交的先执行
+ */
+@Slf4j
+@Component
+public class RebuildScheduler {
+
+    private static final Comparator<Task> BY_SEQ = Comparator.comparingLong(t -> t.seq);
+
+    private static final Comparator<Task> BY_PRIORITY =
+            Comparator.comparingLong((Task t) -> t.priority).reversed().thenComparing(BY_SEQ);
+
+    /**
+     * 执行重建的线程数
+     */
+    @Value("${hmdp.cache.rebuild.threads:10}")
+    private int threads;
+
+    /**
+     * 等待队列的最大任务数
+     */
+    @Value("${hmdp.cache.rebuild.queue-capacity:1000}")
+    private int queueCapacity;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    /**
+     * 等待执行的任务，按优先级从高到低、提交顺序从早到晚排序
+     */
+    private final TreeSet<Task> queue = new TreeSet<>(BY_PRIORITY);
+
+    /**
+     * 等待执行的任务，按提交顺序排序，用于队列满时丢弃最早的任务
+     */
+    private final TreeSet<Task> bySeq = new TreeSet<>(BY_SEQ);
+
+    /**
+     * key -> 等待或正在执行的任务
+     */
+    private final Map<String, Task> inFlight = new HashMap<>();
+
+    private long nextSeq;
+
+    private volatile boolean running;
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    /**
+     * 提交的任务数、重复提交被合并的次数、队列满时丢弃的任务数、执行成功和失败的任务数
+     */
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * 任务在队列中等待的总时间、执行的总时间和最长执行时间（纳秒）
+     */
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder runNanos = new LongAdder();
+    private final LongAccumulator maxRunNanos = new LongAccumulator(Math::max, 0);
+
+    @PostConstruct
+    private void init() {
+        running = true;
+        for (int i = 0; i < Math.max(1, threads); i++) {
+            Thread thread = new Thread(this::work, "cache-rebuild-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            workers.add(thread);
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        workers.forEach(Thread::interrupt);
+    }
+
+    /**
+     * 提交重建任务
+     *
+     * @param key      缓存key，同一个key同时只有一个任务
+     * @param priority 任务的优先级，重复提交时累加到等待中的任务上
+     * @param task
+     * @return 是否新建了任务，key已有等待或正在执行的任务时返回false
+     */
+    public boolean submit(String key, long priority, Runnable task) {
+        lock.lock();
+        try {
+            if (!running) {
+                dropped.increment();
+                return false;
+            }
+            Task existing = inFlight.get(key);
+            if (existing != null) {
+                deduplicated.increment();
+                if (!existing.started) {
+                    // TreeSet中的元素修改排序字段前需要先移除
+                    queue.remove(existing);
+                    existing.priority += priority;
+                    queue.add(existing);
+                }
+                return false;
+            }
+            if (queue.size() >= Math.max(1, queueCapacity)) {
+                // 队列已满，丢弃最早提交的任务
+                Task oldest = bySeq.pollFirst();
+                queue.remove(oldest);
+                inFlight.remove(oldest.key);
+                dropped.increment();
+                log.warn("缓存重建队列已满，丢弃任务：{}", oldest.key);
+            }
+            Task t = new Task(key, nextSeq++, priority, task);
+            queue.add(t);
+            bySeq.add(t);
+            inFlight.put(key, t);
+            submitted.increment();
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        while (running) {
+            Task t;
+            lock.lock();
+            try {
+                while (queue.isEmpty()) {
+                    notEmpty.await();
+                }
+                t = queue.pollFirst();
+                bySeq.remove(t);
+                t.started = true;
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            long begin = System.nanoTime();
+            waitNanos.add(begin - t.submitNanos);
+            try {
+                t.task.run();
+                completed.increment();
+            } catch (Throwable e) {
+                // 捕获所有异常，避免工作线程退出
+                failed.increment();
+                log.error("缓存重建失败：{}", t.key, e);
+            } finally {
+                long cost = System.nanoTime() - begin;
+                runNanos.add(cost);
+                maxRunNanos.accumulate(cost);
+                lock.lock();
+                try {
+                    inFlight.remove(t.key);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * 统计数据
+     *
+     * @return
+     */
+    public Map<String, Long> stats() {
+        long queueDepth;
+        long inFlightCount;
+        lock.lock();
+        try {
+            queueDepth = queue.size();
+            inFlightCount = inFlight.size();
+        } finally {
+            lock.unlock();
+        }
+        long finished = Math.max(1, completed.sum() + failed.sum());
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", queueDepth);
+        stats.put("running", inFlightCount - queueDepth);
+        stats.put("submitted", submitted.sum());
+        stats.put("deduplicated", deduplicated.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("completed", completed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("avgWaitMillis", TimeUnit.NANOSECONDS.toMillis(waitNanos.sum() / finished));
+        stats.put("avgRunMillis", TimeUnit.NANOSECONDS.toMillis(runNanos.sum() / finished));
+        stats.put("maxRunMillis", TimeUnit.NANOSECONDS.toMillis(maxRunNanos.get()));
+        return stats;
+    }
+
+    private static class Task {
+        private final String key;
+        private final long seq;
+        private long priority;
+        private final Runnable task;
+        private final long submitNanos = System.nanoTime();
+        private boolean started;
+
+        private Task(String key, long seq, long priority, Runnable task) {
+            this.key = key;
+            this.seq = seq;
+            this.priority = priority;
+            this.task = task;
+        }
+    }
+}
@@ -10,17 +10,40 @@ public class RedisConstants {
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final String CACHE_SHOP_HASH_KEY = "cache:shop-hash:";
 
     public static final String CACHE_SHOP_TYPE = "cache:shop-type";
 
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String BLOOM_ADD_CHANNEL = "bloom:add";
+    public static final String BLOOM_REBUILD_CHANNEL = "bloom:rebuild";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
+    public static final String LOCK_CACHE_LOAD_KEY = "lock:load:";
+    public static final String LOCK_CACHE_WARM_UP_KEY = "lock:cache:warm-up";
+
     public static final String LOCK_ORDER_KEY = "lock:order:";
 
+    public static final String ID_WORKER_KEY = "id-worker:worker:";
+
     public static final String FOLLOW_KEY = "follows:";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_VOUCHER_KEY = "seckill:voucher:";
+    public static final String SECKILL_LIMIT_KEY = "seckill:limit:";
+    public static final String SECKILL_PAY_TIMEOUT_KEY = "seckill:pay-timeout";
+    public static final String SECKILL_RESERVE_KEY = "seckill:reserve";
+    public static final String SECKILL_RECONCILE_KEY = "seckill:reconcile:";
+    public static final String LOCK_SECKILL_RECONCILE_KEY = "lock:seckill:reconcile";
+    public static final String SECKILL_ORDER_STATUS_KEY = "seckill:status:";
+    public static final Long SECKILL_ORDER_STATUS_TTL = 30L;
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:sold-out";
+    public static final String SECKILL_RESTOCK_CHANNEL = "seckill:restock";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
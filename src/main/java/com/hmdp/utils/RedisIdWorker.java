@@ -1,28 +1,182 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * 全局ID生成器
+ * redis、segment模式：高32位为秒级时间戳，低32位为当天的序列号
+ * redis模式：每个ID一次INCR
+ * segment模式：每个节点一次INCRBY租用一段序列号，在本地用原子计数器分配，用掉一部分后异步预取下一段
+ * snowflake模式：1位模式标记 + 40位毫秒时间戳 + 10位workerId + 12位毫秒内序列号，workerId启动时从Redis租用并定时续期，
+ * 生成ID不访问Redis
+ * 模式标记为第62位：redis、segment模式的秒级时间戳在2^30秒（约34年）内不会用到该位，snowflake模式的ID总是设置该位，
+ * 两种格式的ID范围不相交，已有数据的系统从redis、segment模式切换到snowflake模式不会生成重复的主键
+ */
+@Slf4j
 @Component
 public class RedisIdWorker {
     private static final long BEGIN_TIMESTAMP = 1735689600;
     private static final int COUNT_BITS = 32;
-    private StringRedisTemplate stringRedisTemplate;
-    public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+    private static final long SECONDS_PER_DAY = 86400;
+
+    private static final long BEGIN_MILLIS = BEGIN_TIMESTAMP * 1000;
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final int MAX_WORKERS = 1 << WORKER_BITS;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    /**
+     * snowflake模式ID的模式标记，redis、segment模式的ID都小于该值
+     */
+    public static final long SNOWFLAKE_FLAG = 1L << 62;
+
+    /**
+     * 加载 续期workerId租约 的Lua脚本
+     */
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("lua/id-worker-renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 加载 释放workerId租约 的Lua脚本（与释放锁相同：标识一致才删除）
+     */
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+    static {
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("lua/unlock.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * ID生成方式：redis、segment、snowflake
+     */
+    private final String mode;
+
+    /**
+     * segment模式每次租用的序列号数量
+     */
+    private final long segmentSize;
+
+    /**
+     * 当前号段剩余的比例低于该值时异步预取下一段
+     */
+    private final double prefetchRatio;
+
+    /**
+     * snowflake模式workerId租约的有效期，定时续期的间隔应明显小于该值
+     */
+    private final long workerTtlMillis;
+
+    /**
+     * snowflake模式允许的时钟回拨（毫秒），回拨不超过该值时沿用上一个时间戳继续分配序列号
+     */
+    private final long maxBackwardMillis;
+
+    /**
+     * 当前节点标识，作为workerId租约的值
+     */
+    private final String nodeId = UUID.randomUUID().toString(true);
+
+    /**
+     * 租用的workerId，-1表示尚未租用
+     */
+    private volatile int workerId = -1;
+
+    /**
+     * workerId租约在本地认为有效的截止时间，超过后停止生成ID，避免与接管该workerId的节点生成相同的ID
+     */
+    private volatile long leaseDeadline;
+
+    /**
+     * snowflake模式上一次分配的 时间戳 << SEQUENCE_BITS | 序列号
+     */
+    private final AtomicLong snowflakeState = new AtomicLong();
+
+    /**
+     * 每个业务前缀的号段
+     */
+    private final ConcurrentHashMap<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    /**
+     * 异步预取号段的线程
+     */
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate,
+                         @Value("${hmdp.id-worker.mode:redis}") String mode,
+                         @Value("${hmdp.id-worker.segment-size:1000}") long segmentSize,
+                         @Value("${hmdp.id-worker.prefetch-ratio:0.2}") double prefetchRatio,
+                         @Value("${hmdp.id-worker.worker-ttl-millis:30000}") long workerTtlMillis,
+                         @Value("${hmdp.id-worker.max-backward-millis:5}") long maxBackwardMillis) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.mode = mode;
+        this.segmentSize = Math.max(1, segmentSize);
+        this.prefetchRatio = prefetchRatio;
+        this.workerTtlMillis = workerTtlMillis;
+        this.maxBackwardMillis = Math.max(0, maxBackwardMillis);
+    }
+
+    private boolean isSnowflakeMode() {
+        return "snowflake".equalsIgnoreCase(mode);
+    }
+
+    /**
+     * snowflake模式启动时租用workerId
+     */
+    @PostConstruct
+    private void init() {
+        if (isSnowflakeMode()) {
+            leaseWorkerId();
+        }
     }
+
     public long nextId(String keyPrefix) {
+        if (isSnowflakeMode()) {
+            // ID全局唯一，不需要区分业务前缀
+            return nextSnowflakeId();
+        }
+        if ("segment".equalsIgnoreCase(mode)) {
+            return nextSegmentId(keyPrefix);
+        }
         // 1. 生成时间戳
         LocalDateTime now = LocalDateTime.now();
         long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
         long timestamp = nowSecond - BEGIN_TIMESTAMP;    // 时间戳
         // 2. 生成序列号
         // 2.1 获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        String date = now.format(DATE_FORMATTER);
         // 2.2 自增长
         Long count = stringRedisTemplate.opsForValue().increment("icr:"+keyPrefix+":"+date);
 
@@ -30,4 +184,216 @@ public class RedisIdWorker {
         return timestamp << COUNT_BITS | count;
 
     }
+
+    /**
+     * segment模式：从本地号段取序列号，号段与日期绑定，跨天后重新租用当天的号段
+     * 时间戳不超过号段所属日期的最后一秒，保证前一天租用的序列号不会与当天的序列号组成相同的ID
+     */
+    private long nextSegmentId(String keyPrefix) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new);
+        long nowSecond = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
+        long day = Math.floorDiv(nowSecond, SECONDS_PER_DAY);
+        while (true) {
+            Segment segment = buffer.current;
+            if (segment != null && segment.day >= day) {
+                long count = segment.cursor.getAndIncrement();
+                if (count < segment.end) {
+                    if (segment.end - count <= segment.prefetchThreshold) {
+                        prefetch(buffer, segment);
+                    }
+                    long second = Math.min(nowSecond, (segment.day + 1) * SECONDS_PER_DAY - 1);
+                    return (second - BEGIN_TIMESTAMP) << COUNT_BITS | count;
+                }
+            }
+            switchSegment(buffer, segment, day);
+        }
+    }
+
+    /**
+     * 当前号段用完或者已跨天：优先使用预取的号段，否则同步租用（只有切换号段的线程会在这里等待）
+     */
+    private void switchSegment(SegmentBuffer buffer, Segment exhausted, long day) {
+        synchronized (buffer) {
+            if (buffer.current != exhausted) {
+                // 其它线程已经切换
+                return;
+            }
+            Segment next = buffer.next;
+            buffer.next = null;
+            if (next == null || next.day < day) {
+                next = lease(buffer.keyPrefix, day);
+            }
+            buffer.current = next;
+        }
+    }
+
+    /**
+     * 每个号段只预取一次
+     */
+    private void prefetch(SegmentBuffer buffer, Segment segment) {
+        if (!segment.prefetching.compareAndSet(false, true)) {
+            return;
+        }
+        prefetchExecutor.execute(() -> {
+            try {
+                Segment next = lease(buffer.keyPrefix, segment.day);
+                synchronized (buffer) {
+                    if (buffer.current == segment) {
+                        buffer.next = next;
+                    }
+                }
+            } catch (Exception e) {
+                // 预取失败时，号段用完后由请求线程同步租用
+                log.error("预取ID号段失败", e);
+            }
+        });
+    }
+
+    /**
+     * INCRBY icr:{keyPrefix}:{date} segmentSize，租用 (结果 - segmentSize, 结果] 这一段序列号
+     */
+    private Segment lease(String keyPrefix, long day) {
+        String date = LocalDate.ofEpochDay(day).format(DATE_FORMATTER);
+        Long max = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, segmentSize);
+        if (max == null) {
+            throw new IllegalStateException("租用ID号段失败");
+        }
+        return new Segment(day, max - segmentSize + 1, max + 1, (long) Math.ceil(segmentSize * prefetchRatio));
+    }
+
+    /**
+     * snowflake模式：毫秒时间戳 + workerId + 毫秒内序列号，CAS分配，不访问Redis
+     * 时钟回拨不超过maxBackwardMillis时沿用上一个时间戳；同一毫秒序列号用完时借用下一毫秒，
+     * 借用的时间最多领先当前时间maxBackwardMillis，超过则等待时钟追上
+     */
+    private long nextSnowflakeId() {
+        while (true) {
+            int worker = workerId;
+            if (worker < 0) {
+                leaseWorkerId();
+                continue;
+            }
+            long millis = System.currentTimeMillis();
+            if (millis >= leaseDeadline) {
+                throw new IllegalStateException("workerId租约已过期，停止生成ID");
+            }
+            long now = millis - BEGIN_MILLIS;
+            long current = snowflakeState.get();
+            long last = current >>> SEQUENCE_BITS;
+            long next;
+            if (now > last) {
+                next = now << SEQUENCE_BITS;
+            } else if (last - now > maxBackwardMillis) {
+                throw new IllegalStateException("时钟回拨" + (last - now) + "ms，超过允许的" + maxBackwardMillis + "ms");
+            } else if ((current & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                next = current + 1;
+            } else if (last + 1 - now <= maxBackwardMillis) {
+                next = (last + 1) << SEQUENCE_BITS;
+            } else {
+                // 序列号已用完，等待下一毫秒
+                Thread.yield();
+                continue;
+            }
+            if (snowflakeState.compareAndSet(current, next)) {
+                return SNOWFLAKE_FLAG
+                        | (next >>> SEQUENCE_BITS) << (WORKER_BITS + SEQUENCE_BITS)
+                        | (long) worker << SEQUENCE_BITS
+                        | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    /**
+     * 租用workerId：从随机位置开始依次尝试 SET id-worker:worker:{id} nodeId NX PX ttl
+     */
+    private synchronized void leaseWorkerId() {
+        if (workerId >= 0) {
+            return;
+        }
+        int start = ThreadLocalRandom.current().nextInt(MAX_WORKERS);
+        for (int i = 0; i < MAX_WORKERS; i++) {
+            int id = (start + i) % MAX_WORKERS;
+            long begin = System.currentTimeMillis();
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(RedisConstants.ID_WORKER_KEY + id, nodeId, workerTtlMillis, TimeUnit.MILLISECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                leaseDeadline = begin + workerTtlMillis;
+                workerId = id;
+                log.info("租用workerId：{}", id);
+                return;
+            }
+        }
+        throw new IllegalStateException("没有可用的workerId");
+    }
+
+    /**
+     * 定时续期workerId租约，租约已被其它节点占用时重新租用
+     */
+    @Scheduled(fixedDelayString = "${hmdp.id-worker.heartbeat-millis:10000}")
+    public void renewWorkerId() {
+        int id = workerId;
+        if (!isSnowflakeMode() || id < 0) {
+            return;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT,
+                    Collections.singletonList(RedisConstants.ID_WORKER_KEY + id), nodeId, String.valueOf(workerTtlMillis));
+            if (renewed != null && renewed > 0) {
+                leaseDeadline = begin + workerTtlMillis;
+                return;
+            }
+            log.error("workerId {}的租约已失效，重新租用", id);
+            synchronized (this) {
+                leaseDeadline = 0;
+                workerId = -1;
+            }
+            leaseWorkerId();
+        } catch (Exception e) {
+            // 续期失败时继续使用到租约截止时间，之后停止生成ID
+            log.error("续期workerId租约异常", e);
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        prefetchExecutor.shutdownNow();
+        int id = workerId;
+        if (id >= 0) {
+            try {
+                stringRedisTemplate.execute(RELEASE_SCRIPT,
+                        Collections.singletonList(RedisConstants.ID_WORKER_KEY + id), nodeId);
+            } catch (Exception e) {
+                log.error("释放workerId租约异常", e);
+            }
+        }
+    }
+
+    private static class SegmentBuffer {
+        private final String keyPrefix;
+        private volatile Segment current;
+        private Segment next;
+
+        private SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+    }
+
+    /**
+     * 号段：序列号 [cursor, end)，day为号段所属日期（距1970-01-01的天数）
+     */
+    private static class Segment {
+        private final long day;
+        private final AtomicLong cursor;
+        private final long end;
+        private final long prefetchThreshold;
+        private final AtomicBoolean prefetching = new AtomicBoolean();
+
+        private Segment(long day, long start, long end, long prefetchThreshold) {
+            this.day = day;
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+            this.prefetchThreshold = prefetchThreshold;
+        }
+    }
 }
@@ -0,0 +1,506 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.SeckillVoucher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_LIMIT_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_TTL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_PAY_TIMEOUT_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_RESERVE_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_VOUCHER_KEY;
+
+/**
+ * 秒杀库存的Redis操作
+ * 开启分片库存后，一张秒杀券的库存拆分到K个子key中，用户按userId哈希固定属于一个分片：
+ * 一人一单的名额只记录在用户所属的分片中，该分片库存不足时再依次到其它分片扣库存
+ * 不同分片位于不同的slot，跨分片扣库存无法在一个脚本中完成：占用名额时同时记录到 seckill:reserve:{shard}，
+ * 扣库存或释放名额之前宕机留下的记录由对账任务（SeckillReconciler）确认没有订单后释放名额
+ * 同一个分片的库存、订单、消息队列使用相同的hash tag，保证在Redis Cluster中位于同一个slot
+ */
+@Component
+public class SeckillClient {
+
+    /**
+     * 订单状态：已进入消息队列，等待创建
+     */
+    public static final String ORDER_QUEUED = "QUEUED";
+    /**
+     * 订单状态：已创建
+     */
+    public static final String ORDER_CREATED = "CREATED";
+    /**
+     * 订单状态：创建失败
+     */
+    public static final String ORDER_FAILED = "FAILED";
+    /**
+     * 订单状态：超时未支付，已取消
+     */
+    public static final String ORDER_CANCELLED = "CANCELLED";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 库存分片数量，为1时不分片，使用原来的key
+     */
+    private final int shards;
+
+    /**
+     * 默认限流配置，秒杀券元数据中没有配置限流时使用，速率小于等于0表示不限流
+     * 秒杀券每秒放行的请求数量、令牌桶容量，每个用户每秒放行的请求数量、令牌桶容量
+     */
+    private final String defaultRate;
+    private final String defaultBurst;
+    private final String defaultUserRate;
+    private final String defaultUserBurst;
+
+    public SeckillClient(StringRedisTemplate stringRedisTemplate,
+                         @Value("${hmdp.seckill.stock-shards:1}") int shards,
+                         @Value("${hmdp.seckill.rate-limit.rate:0}") double defaultRate,
+                         @Value("${hmdp.seckill.rate-limit.burst:0}") double defaultBurst,
+                         @Value("${hmdp.seckill.rate-limit.user-rate:0}") double defaultUserRate,
+                         @Value("${hmdp.seckill.rate-limit.user-burst:0}") double defaultUserBurst) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.shards = Math.max(shards, 1);
+        this.defaultRate = String.valueOf(defaultRate);
+        this.defaultBurst = String.valueOf(defaultBurst);
+        this.defaultUserRate = String.valueOf(defaultUserRate);
+        this.defaultUserBurst = String.valueOf(defaultUserBurst);
+    }
+
+    /**
+     * 加载 判断秒杀券库存是否充足 并且 判断用户是否已下单 的Lua脚本
+     */
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("lua/seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 加载 到其它分片扣库存 的Lua脚本
+     */
+    private static final DefaultRedisScript<Long> TAKE_SCRIPT;
+    static {
+        TAKE_SCRIPT = new DefaultRedisScript<>();
+        TAKE_SCRIPT.setLocation(new ClassPathResource("lua/seckill-take.lua"));
+        TAKE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 加载 释放一人一单名额 的Lua脚本
+     */
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+    static {
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("lua/seckill-release.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 加载 释放超时没有生成订单的名额 的Lua脚本
+     */
+    private static final DefaultRedisScript<Long> RESERVE_EXPIRE_SCRIPT;
+    static {
+        RESERVE_EXPIRE_SCRIPT = new DefaultRedisScript<>();
+        RESERVE_EXPIRE_SCRIPT.setLocation(new ClassPathResource("lua/seckill-reserve-expire.lua"));
+        RESERVE_EXPIRE_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 加载 替换秒杀券有效期 的Lua脚本
+     */
+    private static final DefaultRedisScript<Long> VOUCHER_SAVE_SCRIPT;
+    static {
+        VOUCHER_SAVE_SCRIPT = new DefaultRedisScript<>();
+        VOUCHER_SAVE_SCRIPT.setLocation(new ClassPathResource("lua/seckill-voucher-save.lua"));
+        VOUCHER_SAVE_SCRIPT.setResultType(Long.class);
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public boolean isSharded() {
+        return shards > 1;
+    }
+
+    /**
+     * 用户所属的分片
+     *
+     * @param userId
+     * @return
+     */
+    public int homeShard(Long userId) {
+        return Math.floorMod(Long.hashCode(userId), shards);
+    }
+
+    /**
+     * 库存key，不分片：seckill:stock:{voucherId}，分片：seckill:stock:{shard}:{voucherId}
+     *
+     * @param voucherId
+     * @param shard
+     * @return
+     */
+    public String stockKey(Long voucherId, int shard) {
+        return isSharded() ? SECKILL_STOCK_KEY + tag(shard) + ":" + voucherId : SECKILL_STOCK_KEY + voucherId;
+    }
+
+    /**
+     * 订单key（一人一单），不分片：seckill:order:{voucherId}，分片：seckill:order:{shard}:{voucherId}
+     *
+     * @param voucherId
+     * @param shard
+     * @return
+     */
+    public String orderKey(Long voucherId, int shard) {
+        return isSharded() ? SECKILL_ORDER_KEY + tag(shard) + ":" + voucherId : SECKILL_ORDER_KEY + voucherId;
+    }
+
+    /**
+     * 秒杀券元数据key（开始时间、结束时间），不分片：seckill:voucher:{voucherId}，分片：seckill:voucher:{shard}:{voucherId}
+     * 分片时每个分片保存一份，保证秒杀脚本访问的key位于同一个slot
+     *
+     * @param voucherId
+     * @param shard
+     * @return
+     */
+    public String voucherKey(Long voucherId, int shard) {
+        return isSharded() ? SECKILL_VOUCHER_KEY + tag(shard) + ":" + voucherId : SECKILL_VOUCHER_KEY + voucherId;
+    }
+
+    /**
+     * 秒杀券令牌桶key，不分片：seckill:limit:{voucherId}，分片：seckill:limit:{shard}:{voucherId}
+     *
+     * @param voucherId
+     * @param shard
+     * @return
+     */
+    public String limitKey(Long voucherId, int shard) {
+        return isSharded() ? SECKILL_LIMIT_KEY + tag(shard) + ":" + voucherId : SECKILL_LIMIT_KEY + voucherId;
+    }
+
+    /**
+     * 用户令牌桶key，位于用户所属分片：seckill:limit:{voucherId}:{userId}，分片：seckill:limit:{shard}:{voucherId}:{userId}
+     *
+     * @param voucherId
+     * @param userId
+     * @return
+     */
+    public String userLimitKey(Long voucherId, Long userId) {
+        return limitKey(voucherId, homeShard(userId)) + ":" + userId;
+    }
+
+    /**
+     * 支付超时队列的key（ZSET，score为支付截止时间），不分片：seckill:pay-timeout，分片：seckill:pay-timeout:{shard}
+     * 订单按用户所属分片保存，取消时归还的库存和释放的名额都在同一个分片
+     *
+     * @param shard
+     * @return
+     */
+    public String payTimeoutKey(int shard) {
+        return isSharded() ? SECKILL_PAY_TIMEOUT_KEY + ":" + tag(shard) : SECKILL_PAY_TIMEOUT_KEY;
+    }
+
+    /**
+     * 跨分片扣库存时占用名额的记录（ZSET，score为占用时间，成员为 订单id:用户id:优惠券id），
+     * 位于用户所属分片：seckill:reserve:{shard}
+     *
+     * @param shard
+     * @return
+     */
+    public String reserveKey(int shard) {
+        return isSharded() ? SECKILL_RESERVE_KEY + ":" + tag(shard) : SECKILL_RESERVE_KEY;
+    }
+
+    /**
+     * 订单消息队列的key，不分片：stream.orders，分片：stream.orders:{shard}
+     *
+     * @param shard
+     * @return
+     */
+    public String streamKey(int shard) {
+        return isSharded() ? SECKILL_ORDER_STREAM_KEY + ":" + tag(shard) : SECKILL_ORDER_STREAM_KEY;
+    }
+
+    /**
+     * 需要消费的所有消息队列，开启分片后仍然消费原来的消息队列，保证切换前已接受的订单被处理
+     *
+     * @return
+     */
+    public List<String> streamKeys() {
+        List<String> keys = new ArrayList<>(shards + 1);
+        keys.add(SECKILL_ORDER_STREAM_KEY);
+        if (isSharded()) {
+            for (int i = 0; i < shards; i++) {
+                keys.add(streamKey(i));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * hash tag，Redis Cluster只使用{}中的内容计算slot
+     *
+     * @param shard
+     * @return
+     */
+    private static String tag(int shard) {
+        return "{" + shard + "}";
+    }
+
+    /**
+     * 执行秒杀脚本：判断秒杀是否在有效期内、是否超过限流、库存是否充足、用户是否已下单，成功则扣库存并将订单写入消息队列
+     * 只访问Redis，不查询数据库
+     *
+     * @param voucherId
+     * @param userId
+     * @param orderId
+     * @return 0：下单成功，1：库存不足，2：用户已下单，4：秒杀尚未开始，5：秒杀已经结束，6：请求过多被限流
+     */
+    public long seckill(Long voucherId, Long userId, long orderId) {
+        int home = homeShard(userId);
+        Long result = stringRedisTemplate.execute(
+                SECKILL_SCRIPT,
+                Arrays.asList(stockKey(voucherId, home), orderKey(voucherId, home), streamKey(home),
+                        voucherKey(voucherId, home), limitKey(voucherId, home), userLimitKey(voucherId, userId),
+                        reserveKey(home)),
+                voucherId.toString(), userId.toString(), String.valueOf(orderId), isSharded() ? "1" : "0",
+                String.valueOf(shards),
+                defaultRate, defaultBurst, defaultUserRate, defaultUserBurst, SECKILL_SOLD_OUT_CHANNEL
+        );
+        if (result == null || result != 3L) {
+            return result == null ? 1L : result;
+        }
+        // result为3表示用户所属分片库存不足，且已占用一人一单的名额，依次到其它分片扣库存
+        String reservation = orderId + ":" + userId + ":" + voucherId;
+        for (int i = 1; i < shards; i++) {
+            int shard = (home + i) % shards;
+            Long taken = stringRedisTemplate.execute(
+                    TAKE_SCRIPT,
+                    Arrays.asList(stockKey(voucherId, shard), streamKey(shard)),
+                    voucherId.toString(), userId.toString(), String.valueOf(orderId)
+            );
+            if (taken != null && taken == 0L) {
+                // 订单已进入消息队列，删除占用名额的记录（删除失败时由对账任务确认订单存在后删除）
+                stringRedisTemplate.opsForZSet().remove(reserveKey(home), reservation);
+                return 0L;
+            }
+        }
+        // 所有分片库存都不足，释放占用的名额
+        stringRedisTemplate.execute(
+                RELEASE_SCRIPT,
+                Arrays.asList(orderKey(voucherId, home), reserveKey(home)),
+                voucherId.toString(), userId.toString(), SECKILL_SOLD_OUT_CHANNEL, reservation
+        );
+        return 1L;
+    }
+
+    /**
+     * 查询用户所属分片中占用时间早于指定时间的名额记录
+     *
+     * @param shard
+     * @param before 占用时间（毫秒）
+     * @param count
+     * @return 订单id:用户id:优惠券id
+     */
+    public Set<String> expiredReservations(int shard, long before, int count) {
+        return stringRedisTemplate.opsForZSet().rangeByScore(reserveKey(shard), 0, before, 0, count);
+    }
+
+    /**
+     * 删除名额记录，订单已经生成，名额继续保留
+     *
+     * @param shard
+     * @param reservations
+     */
+    public void removeReservations(int shard, Collection<String> reservations) {
+        if (!reservations.isEmpty()) {
+            stringRedisTemplate.opsForZSet().remove(reserveKey(shard), reservations.toArray());
+        }
+    }
+
+    /**
+     * 释放没有生成订单的名额，记录已被删除时不释放
+     *
+     * @param shard
+     * @param reservation 订单id:用户id:优惠券id
+     * @return 是否释放了名额
+     */
+    public boolean releaseReservation(int shard, String reservation) {
+        String[] parts = reservation.split(":");
+        Long released = stringRedisTemplate.execute(
+                RESERVE_EXPIRE_SCRIPT,
+                Arrays.asList(orderKey(Long.valueOf(parts[2]), shard), reserveKey(shard)),
+                reservation, parts[1]
+        );
+        return released != null && released == 1L;
+    }
+
+    /**
+     * 记录订单已进入消息队列
+     * 只在状态不存在时写入，消费线程可能已经先写入了订单的最终状态
+     *
+     * @param orderId
+     */
+    public void markQueued(long orderId) {
+        stringRedisTemplate.opsForValue().setIfAbsent(SECKILL_ORDER_STATUS_KEY + orderId, ORDER_QUEUED,
+                SECKILL_ORDER_STATUS_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 记录订单的最终状态（CREATED、FAILED或CANCELLED）
+     *
+     * @param orderId
+     * @param status
+     */
+    public void markOrderStatus(long orderId, String status) {
+        stringRedisTemplate.opsForValue().set(SECKILL_ORDER_STATUS_KEY + orderId, status,
+                SECKILL_ORDER_STATUS_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 查询订单状态，状态不存在（订单不存在或已过期）时返回null
+     *
+     * @param orderId
+     * @return
+     */
+    public String getOrderStatus(long orderId) {
+        return stringRedisTemplate.opsForValue().get(SECKILL_ORDER_STATUS_KEY + orderId);
+    }
+
+    /**
+     * 保存秒杀券元数据，秒杀脚本据此判断秒杀是否在有效期内
+     * 每个分片由一次脚本原子地替换原来的有效期，时间为null时不再校验；同一个Hash中的限流配置保留
+     *
+     * @param seckillVoucher
+     */
+    public void saveVoucher(SeckillVoucher seckillVoucher) {
+        String begin = seckillVoucher.getBeginTime() == null ? "" : String.valueOf(toEpochMilli(seckillVoucher.getBeginTime()));
+        String end = seckillVoucher.getEndTime() == null ? "" : String.valueOf(toEpochMilli(seckillVoucher.getEndTime()));
+        for (int i = 0; i < shards; i++) {
+            stringRedisTemplate.execute(VOUCHER_SAVE_SCRIPT,
+                    Collections.singletonList(voucherKey(seckillVoucher.getVoucherId(), i)), begin, end);
+        }
+    }
+
+    /**
+     * 保存秒杀券的限流配置，参数为null时删除该项配置，改为使用默认配置
+     * 秒杀券的速率和容量是所有分片的总和，由秒杀脚本平均分配到各个分片
+     *
+     * @param voucherId
+     * @param rate      秒杀券每秒放行的请求数量
+     * @param burst     秒杀券令牌桶容量
+     * @param userRate  每个用户每秒放行的请求数量
+     * @param userBurst 每个用户令牌桶容量
+     */
+    public void saveLimit(Long voucherId, Double rate, Double burst, Double userRate, Double userBurst) {
+        Map<String, String> limit = new HashMap<>(8);
+        List<Object> removed = new ArrayList<>(4);
+        putOrRemove(limit, removed, "rate", rate);
+        putOrRemove(limit, removed, "burst", burst);
+        putOrRemove(limit, removed, "userRate", userRate);
+        putOrRemove(limit, removed, "userBurst", userBurst);
+        for (int i = 0; i < shards; i++) {
+            String key = voucherKey(voucherId, i);
+            if (!limit.isEmpty()) {
+                stringRedisTemplate.opsForHash().putAll(key, limit);
+            }
+            if (!removed.isEmpty()) {
+                stringRedisTemplate.opsForHash().delete(key, removed.toArray());
+            }
+        }
+    }
+
+    private static void putOrRemove(Map<String, String> limit, List<Object> removed, String field, Double value) {
+        if (value == null) {
+            removed.add(field);
+        } else {
+            limit.put(field, value.toString());
+        }
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 初始化秒杀库存，开启分片时将库存平均拆分到各个分片
+     *
+     * @param voucherId
+     * @param stock
+     */
+    public void setStock(Long voucherId, int stock) {
+        int[] split = split(stock);
+        for (int i = 0; i < shards; i++) {
+            stringRedisTemplate.opsForValue().set(stockKey(voucherId, i), String.valueOf(split[i]));
+        }
+    }
+
+    /**
+     * 库存不存在时初始化秒杀库存（例如Redis数据丢失后重启），已存在的库存可能已被扣减，不覆盖
+     *
+     * @param voucherId
+     * @param stock
+     * @return 是否有分片的库存被初始化
+     */
+    public boolean setStockIfAbsent(Long voucherId, int stock) {
+        int[] split = split(stock);
+        boolean set = false;
+        for (int i = 0; i < shards; i++) {
+            Boolean ok = stringRedisTemplate.opsForValue().setIfAbsent(stockKey(voucherId, i), String.valueOf(split[i]));
+            set |= Boolean.TRUE.equals(ok);
+        }
+        return set;
+    }
+
+    /**
+     * 补充秒杀库存，开启分片时将补充的库存平均拆分到各个分片
+     *
+     * @param voucherId
+     * @param amount
+     */
+    public void addStock(Long voucherId, int amount) {
+        int[] split = split(amount);
+        for (int i = 0; i < shards; i++) {
+            if (split[i] > 0) {
+                stringRedisTemplate.opsForValue().increment(stockKey(voucherId, i), split[i]);
+            }
+        }
+    }
+
+    /**
+     * 将库存平均拆分到各个分片，余数分给前几个分片
+     *
+     * @param stock
+     * @return
+     */
+    private int[] split(int stock) {
+        int[] split = new int[shards];
+        for (int i = 0; i < shards; i++) {
+            split[i] = stock / shards + (i < stock % shards ? 1 : 0);
+        }
+        return split;
+    }
+}
@@ -0,0 +1,169 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 秒杀订单支付超时队列：订单创建后以 支付截止时间 为score加入ZSET，定时取出到期的订单取消并归还库存
+ * 每次只按score范围取出到期的一批订单，与队列中等待的订单总数无关，百万级未支付订单也不会变慢
+ * ZSET成员为 订单id:用户id:优惠券id，取消时不需要查询订单即可定位Redis中的库存
+ */
+@Slf4j
+@Component
+public class SeckillPayTimeoutQueue {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillClient seckillClient;
+
+    @Resource
+    private SeckillSoldOutCache seckillSoldOutCache;
+
+    @Lazy
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    /**
+     * 支付超时时间（分钟），小于等于0表示不取消未支付的订单
+     * 目前还没有支付接口，订单不会变为已支付，开启前需要先接入支付，否则所有订单都会在超时后被取消
+     */
+    @Value("${hmdp.seckill.pay-timeout.minutes:0}")
+    private long timeoutMinutes;
+
+    /**
+     * 每次取出的到期订单数量
+     */
+    @Value("${hmdp.seckill.pay-timeout.batch-size:500}")
+    private int batchSize;
+
+    /**
+     * 加载 取消订单归还库存 的Lua脚本
+     */
+    private static final DefaultRedisScript<Long> CANCEL_SCRIPT;
+    static {
+        CANCEL_SCRIPT = new DefaultRedisScript<>();
+        CANCEL_SCRIPT.setLocation(new ClassPathResource("lua/seckill-cancel.lua"));
+        CANCEL_SCRIPT.setResultType(Long.class);
+    }
+
+    private boolean isEnabled() {
+        return timeoutMinutes > 0;
+    }
+
+    /**
+     * 订单创建成功后加入支付超时队列，按用户所属分片分组，每个分片一次ZADD
+     *
+     * @param voucherOrders
+     */
+    public void schedule(List<VoucherOrder> voucherOrders) {
+        if (!isEnabled() || voucherOrders.isEmpty()) {
+            return;
+        }
+        double deadline = System.currentTimeMillis() + timeoutMinutes * 60_000;
+        Map<Integer, Set<ZSetOperations.TypedTuple<String>>> ordersByShard = new HashMap<>();
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            String member = voucherOrder.getId() + ":" + voucherOrder.getUserId() + ":" + voucherOrder.getVoucherId();
+            ordersByShard.computeIfAbsent(seckillClient.homeShard(voucherOrder.getUserId()), k -> new HashSet<>())
+                    .add(new DefaultTypedTuple<>(member, deadline));
+        }
+        for (Map.Entry<Integer, Set<ZSetOperations.TypedTuple<String>>> entry : ordersByShard.entrySet()) {
+            stringRedisTemplate.opsForZSet().add(seckillClient.payTimeoutKey(entry.getKey()), entry.getValue());
+        }
+    }
+
+    /**
+     * 定时取出到期的订单：ZRANGEBYSCORE key 0 now LIMIT 0 n
+     */
+    @Scheduled(fixedDelayString = "${hmdp.seckill.pay-timeout.poll-millis:1000}")
+    public void cancelExpiredOrders() {
+        if (!isEnabled()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (int shard = 0; shard < seckillClient.getShards(); shard++) {
+            String key = seckillClient.payTimeoutKey(shard);
+            try {
+                while (true) {
+                    Set<String> members = stringRedisTemplate.opsForZSet().rangeByScore(key, 0, now, 0, batchSize);
+                    if (members == null || members.isEmpty()) {
+                        break;
+                    }
+                    cancel(shard, key, members);
+                    if (members.size() < batchSize) {
+                        break;
+                    }
+                }
+            } catch (Exception e) {
+                log.error("取消超时未支付的订单异常", e);
+            }
+        }
+    }
+
+    /**
+     * 取消一批到期的订单
+     * 1、数据库：仍未支付的订单改为已取消，每张优惠券归还一次库存
+     * 2、Redis：已取消的订单归还库存并删除下单记录，已支付或者不存在的订单只从队列中删除
+     * 两步之间宕机时，已取消的订单仍在队列中，下次会再次归还Redis库存（数据库不会重复归还）
+     */
+    private void cancel(int shard, String key, Set<String> members) {
+        List<Long> orderIds = new ArrayList<>(members.size());
+        for (String member : members) {
+            orderIds.add(Long.valueOf(member.substring(0, member.indexOf(':'))));
+        }
+        Set<Long> cancelledIds = voucherOrderService.cancelVoucherOrders(orderIds);
+
+        List<String> keys = new ArrayList<>(members.size() * 2 + 1);
+        keys.add(key);
+        List<String> cancelled = new ArrayList<>();
+        List<Object> removed = new ArrayList<>();
+        Set<Long> voucherIds = new HashSet<>();
+        for (String member : members) {
+            String[] parts = member.split(":");
+            if (!cancelledIds.contains(Long.valueOf(parts[0]))) {
+                removed.add(member);
+                continue;
+            }
+            Long voucherId = Long.valueOf(parts[2]);
+            keys.add(seckillClient.stockKey(voucherId, shard));
+            keys.add(seckillClient.orderKey(voucherId, shard));
+            cancelled.add(member);
+            voucherIds.add(voucherId);
+        }
+        if (!removed.isEmpty()) {
+            stringRedisTemplate.opsForZSet().remove(key, removed.toArray());
+        }
+        if (cancelled.isEmpty()) {
+            return;
+        }
+        Long restored = stringRedisTemplate.execute(CANCEL_SCRIPT, keys, cancelled.toArray());
+        // 归还库存后通知所有节点清除售罄标记
+        for (Long voucherId : voucherIds) {
+            seckillSoldOutCache.publishRestock(voucherId);
+        }
+        for (String member : cancelled) {
+            seckillClient.markOrderStatus(Long.parseLong(member.substring(0, member.indexOf(':'))),
+                    SeckillClient.ORDER_CANCELLED);
+        }
+        log.info("取消超时未支付的订单" + cancelled.size() + "个，归还Redis库存" + restored + "个");
+    }
+}
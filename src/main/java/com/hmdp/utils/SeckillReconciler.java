@@ -0,0 +1,328 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.LOCK_SECKILL_RECONCILE_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_RECONCILE_KEY;
+
+/**
+ * Redis与数据库的秒杀对账
+ * 秒杀脚本先扣Redis库存，再由消费线程异步写数据库，消费失败时两边会不一致，定时增量核对：
+ * 1、数据库 -> Redis：按 (create_time, id) 游标分页读取已落库的订单，用户不在Redis订单集合中时补上（修复）
+ * 已取消的订单已经归还库存并释放了一人一单的名额，不参与对账
+ * 2、Redis -> 数据库：按SSCAN游标分批扫描Redis订单集合，超过观察期仍没有订单的用户记录为疑似丢失（报告）
+ * 3、库存：Redis库存 + Redis已下单人数 应当等于 数据库库存 + 数据库订单数，不相等时报告
+ * 4、跨分片扣库存占用的名额：超过观察期仍没有订单的释放名额（修复）
+ * 游标和对账结果保存在 seckill:reconcile:{voucherId} 中，重启后从上次的进度继续
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "hmdp.seckill.reconcile.enabled", havingValue = "true", matchIfMissing = true)
+public class SeckillReconciler {
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private SeckillClient seckillClient;
+
+    /**
+     * 每次从数据库读取的数量、每次扫描Redis订单集合的数量
+     */
+    @Value("${hmdp.seckill.reconcile.page-size:500}")
+    private int pageSize;
+
+    /**
+     * 每张秒杀券每次对账最多读取的页数
+     */
+    @Value("${hmdp.seckill.reconcile.max-pages:20}")
+    private int maxPages;
+
+    /**
+     * 观察期（毫秒），只核对创建超过该时间的订单
+     */
+    @Value("${hmdp.seckill.reconcile.settle-millis:300000}")
+    private long settleMillis;
+
+    /**
+     * 加载 增量扫描Set 的Lua脚本
+     */
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> SET_SCAN_SCRIPT;
+    static {
+        SET_SCAN_SCRIPT = new DefaultRedisScript<>();
+        SET_SCAN_SCRIPT.setLocation(new ClassPathResource("lua/set-scan.lua"));
+        SET_SCAN_SCRIPT.setResultType(List.class);
+    }
+
+    /**
+     * 定时对账，多个节点同时运行时只有获取到锁的节点执行
+     */
+    @Scheduled(initialDelayString = "${hmdp.seckill.reconcile.interval-millis:60000}",
+            fixedDelayString = "${hmdp.seckill.reconcile.interval-millis:60000}")
+    public void reconcile() {
+        RLock lock = redissonClient.getLock(LOCK_SECKILL_RECONCILE_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            releaseExpiredReservations();
+            // 秒杀券同样按id游标分页读取，不一次性加载整张表
+            long lastVoucherId = 0;
+            while (true) {
+                List<SeckillVoucher> seckillVouchers = seckillVoucherService.list(new LambdaQueryWrapper<SeckillVoucher>()
+                        .select(SeckillVoucher::getVoucherId, SeckillVoucher::getStock)
+                        .gt(SeckillVoucher::getVoucherId, lastVoucherId)
+                        .orderByAsc(SeckillVoucher::getVoucherId)
+                        .last("limit " + pageSize));
+                for (SeckillVoucher seckillVoucher : seckillVouchers) {
+                    try {
+                        reconcile(seckillVoucher);
+                    } catch (Exception e) {
+                        log.error("秒杀券" + seckillVoucher.getVoucherId() + "对账异常", e);
+                    }
+                }
+                if (seckillVouchers.size() < pageSize) {
+                    break;
+                }
+                lastVoucherId = seckillVouchers.get(seckillVouchers.size() - 1).getVoucherId();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 跨分片扣库存时占用的名额：超过观察期后，订单状态和数据库订单都不存在的释放名额，订单存在的只删除记录
+     */
+    private void releaseExpiredReservations() {
+        long before = System.currentTimeMillis() - settleMillis;
+        for (int shard = 0; shard < seckillClient.getShards(); shard++) {
+            try {
+                for (int page = 0; page < maxPages; page++) {
+                    Set<String> reservations = seckillClient.expiredReservations(shard, before, pageSize);
+                    if (reservations == null || reservations.isEmpty()) {
+                        break;
+                    }
+                    Map<Long, String> byOrderId = new HashMap<>(reservations.size() * 2);
+                    for (String reservation : reservations) {
+                        byOrderId.put(Long.valueOf(reservation.substring(0, reservation.indexOf(':'))), reservation);
+                    }
+                    Set<Long> orderIds = voucherOrderService.listByIds(byOrderId.keySet()).stream()
+                            .map(VoucherOrder::getId)
+                            .collect(Collectors.toSet());
+                    List<String> ordered = new ArrayList<>();
+                    for (Map.Entry<Long, String> entry : byOrderId.entrySet()) {
+                        if (orderIds.contains(entry.getKey()) || seckillClient.getOrderStatus(entry.getKey()) != null) {
+                            ordered.add(entry.getValue());
+                        } else if (seckillClient.releaseReservation(shard, entry.getValue())) {
+                            log.warn("跨分片扣库存占用的名额没有生成订单，已释放：{}", entry.getValue());
+                        }
+                    }
+                    seckillClient.removeReservations(shard, ordered);
+                    if (reservations.size() < pageSize) {
+                        break;
+                    }
+                }
+            } catch (Exception e) {
+                log.error("释放跨分片扣库存占用的名额异常", e);
+            }
+        }
+    }
+
+    private void reconcile(SeckillVoucher seckillVoucher) {
+        Long voucherId = seckillVoucher.getVoucherId();
+        String progressKey = SECKILL_RECONCILE_KEY + voucherId;
+        Map<Object, Object> progress = stringRedisTemplate.opsForHash().entries(progressKey);
+        long repaired = reconcileOrders(voucherId, progressKey, progress);
+        long lost = reconcileOrderSets(voucherId, progressKey, progress);
+        long stockDrift = checkStock(seckillVoucher);
+
+        Map<String, String> report = new HashMap<>(4);
+        report.put("repaired", String.valueOf(repaired));
+        report.put("lost", String.valueOf(lost));
+        report.put("stockDrift", String.valueOf(stockDrift));
+        report.put("checkedAt", LocalDateTime.now().toString());
+        stringRedisTemplate.opsForHash().putAll(progressKey, report);
+        if (repaired > 0 || lost > 0 || stockDrift != 0) {
+            log.warn("秒杀券{}对账：补齐Redis订单{}个，疑似丢失订单{}个，库存差异{}", voucherId, repaired, lost, stockDrift);
+        }
+    }
+
+    /**
+     * 数据库 -> Redis：按 (create_time, id) 游标读取已经过了观察期的订单，用户不在Redis订单集合中时补上，防止用户重复下单
+     *
+     * @return 本次补齐的订单数量
+     */
+    private long reconcileOrders(Long voucherId, String progressKey, Map<Object, Object> progress) {
+        LocalDateTime cursorTime = progress.get("cursorTime") == null
+                ? LocalDateTime.of(1970, 1, 1, 0, 0) : LocalDateTime.parse(progress.get("cursorTime").toString());
+        long cursorId = progress.get("cursorId") == null ? 0 : Long.parseLong(progress.get("cursorId").toString());
+        LocalDateTime settled = LocalDateTime.now().minusNanos(settleMillis * 1_000_000);
+        long repaired = 0;
+        for (int page = 0; page < maxPages; page++) {
+            LocalDateTime time = cursorTime;
+            long id = cursorId;
+            // WHERE voucher_id = ? AND create_time < ? AND (create_time > ? OR (create_time = ? AND id > ?)) ORDER BY create_time, id LIMIT n
+            List<VoucherOrder> orders = voucherOrderService.list(new LambdaQueryWrapper<VoucherOrder>()
+                    .select(VoucherOrder::getId, VoucherOrder::getUserId, VoucherOrder::getCreateTime)
+                    .eq(VoucherOrder::getVoucherId, voucherId)
+                    .ne(VoucherOrder::getStatus, 4)
+                    .lt(VoucherOrder::getCreateTime, settled)
+                    .and(w -> w.gt(VoucherOrder::getCreateTime, time)
+                            .or(o -> o.eq(VoucherOrder::getCreateTime, time).gt(VoucherOrder::getId, id)))
+                    .orderByAsc(VoucherOrder::getCreateTime, VoucherOrder::getId)
+                    .last("limit " + pageSize));
+            if (orders.isEmpty()) {
+                break;
+            }
+            for (VoucherOrder order : orders) {
+                String orderKey = seckillClient.orderKey(voucherId, seckillClient.homeShard(order.getUserId()));
+                Long added = stringRedisTemplate.opsForSet().add(orderKey, order.getUserId().toString());
+                if (added != null && added > 0) {
+                    repaired++;
+                    log.warn("秒杀券{}的订单{}不在Redis订单集合中，已补齐用户{}", voucherId, order.getId(), order.getUserId());
+                }
+            }
+            VoucherOrder last = orders.get(orders.size() - 1);
+            cursorTime = last.getCreateTime();
+            cursorId = last.getId();
+            // 每读完一页保存一次进度
+            Map<String, String> cursor = new HashMap<>(2);
+            cursor.put("cursorTime", cursorTime.toString());
+            cursor.put("cursorId", String.valueOf(cursorId));
+            stringRedisTemplate.opsForHash().putAll(progressKey, cursor);
+            if (orders.size() < pageSize) {
+                break;
+            }
+        }
+        return repaired;
+    }
+
+    /**
+     * Redis -> 数据库：按SSCAN游标扫描各个分片的订单集合，数据库中没有订单的用户先记录为待确认，
+     * 超过观察期后仍然没有订单则认为订单已丢失（只报告，不自动回补库存，避免与仍在处理的订单冲突）
+     *
+     * @return 当前疑似丢失的订单数量
+     */
+    private long reconcileOrderSets(Long voucherId, String progressKey, Map<Object, Object> progress) {
+        String suspectKey = progressKey + ":suspects";
+        long now = System.currentTimeMillis();
+        for (int shard = 0; shard < seckillClient.getShards(); shard++) {
+            String field = "scan:" + shard;
+            String cursor = progress.get(field) == null ? "0" : progress.get(field).toString();
+            List<?> result = stringRedisTemplate.execute(SET_SCAN_SCRIPT,
+                    Collections.singletonList(seckillClient.orderKey(voucherId, shard)), cursor, String.valueOf(pageSize));
+            if (result == null || result.size() < 2) {
+                continue;
+            }
+            List<String> userIds = ((List<?>) result.get(1)).stream().map(Object::toString).collect(Collectors.toList());
+            for (String userId : missingUsers(voucherId, userIds)) {
+                // 只记录第一次发现的时间
+                stringRedisTemplate.opsForHash().putIfAbsent(suspectKey, userId, String.valueOf(now));
+            }
+            stringRedisTemplate.opsForHash().put(progressKey, field, result.get(0).toString());
+        }
+        // 复查待确认的用户：已经有订单或者名额已被释放的移除，超过观察期的计为疑似丢失
+        Map<Object, Object> suspects = stringRedisTemplate.opsForHash().entries(suspectKey);
+        if (suspects.isEmpty()) {
+            return 0;
+        }
+        List<String> userIds = suspects.keySet().stream().map(Object::toString).collect(Collectors.toList());
+        Set<String> missing = new HashSet<>(missingUsers(voucherId, userIds));
+        List<Object> resolved = new ArrayList<>();
+        long lost = 0;
+        for (Map.Entry<Object, Object> entry : suspects.entrySet()) {
+            String userId = entry.getKey().toString();
+            if (!missing.contains(userId) || !Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(
+                    seckillClient.orderKey(voucherId, seckillClient.homeShard(Long.valueOf(userId))), userId))) {
+                resolved.add(entry.getKey());
+            } else if (now - Long.parseLong(entry.getValue().toString()) >= settleMillis) {
+                lost++;
+            }
+        }
+        if (!resolved.isEmpty()) {
+            stringRedisTemplate.opsForHash().delete(suspectKey, resolved.toArray());
+        }
+        return lost;
+    }
+
+    /**
+     * 查询在数据库中没有该秒杀券订单（不包括已取消的订单）的用户
+     */
+    private List<String> missingUsers(Long voucherId, List<String> userIds) {
+        List<String> missing = new ArrayList<>();
+        for (int from = 0; from < userIds.size(); from += pageSize) {
+            List<String> batch = userIds.subList(from, Math.min(from + pageSize, userIds.size()));
+            Set<String> ordered = voucherOrderService.list(new LambdaQueryWrapper<VoucherOrder>()
+                            .select(VoucherOrder::getUserId)
+                            .eq(VoucherOrder::getVoucherId, voucherId)
+                            .ne(VoucherOrder::getStatus, 4)
+                            .in(VoucherOrder::getUserId, batch))
+                    .stream()
+                    .map(order -> order.getUserId().toString())
+                    .collect(Collectors.toSet());
+            for (String userId : batch) {
+                if (!ordered.contains(userId)) {
+                    missing.add(userId);
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * 库存核对：两边的 库存 + 已下单数量 都等于累计投放的库存
+     * 订单在消息队列中时Redis和数据库各自的和都不变，所以不受异步落库的影响
+     *
+     * @return (Redis库存 + Redis已下单人数) - (数据库库存 + 数据库订单数)
+     */
+    private long checkStock(SeckillVoucher seckillVoucher) {
+        Long voucherId = seckillVoucher.getVoucherId();
+        long redisTotal = 0;
+        for (int shard = 0; shard < seckillClient.getShards(); shard++) {
+            String stock = stringRedisTemplate.opsForValue().get(seckillClient.stockKey(voucherId, shard));
+            Long ordered = stringRedisTemplate.opsForSet().size(seckillClient.orderKey(voucherId, shard));
+            redisTotal += (StrUtil.isBlank(stock) ? 0 : Long.parseLong(stock)) + (ordered == null ? 0 : ordered);
+        }
+        int dbOrders = voucherOrderService.count(new LambdaQueryWrapper<VoucherOrder>()
+                .eq(VoucherOrder::getVoucherId, voucherId)
+                .ne(VoucherOrder::getStatus, 4));
+        return redisTotal - (seckillVoucher.getStock() + dbOrders);
+    }
+}
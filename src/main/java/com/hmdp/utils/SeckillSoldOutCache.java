@@ -0,0 +1,129 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_RESTOCK_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 秒杀券本地售罄标记
+ * 秒杀券售罄后，后续请求直接在JVM内返回库存不足，不再执行秒杀Lua脚本
+ * 售罄消息由seckill.lua在库存扣减到0时发布，补充库存时发布补库存消息清除标记
+ */
+@Component
+@Slf4j
+public class SeckillSoldOutCache implements MessageListener {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * 售罄标记的有效期（毫秒），即使漏收补库存消息，标记过期后也会重新到Redis中校验库存
+     */
+    @Value("${hmdp.seckill.sold-out-ttl-millis:10000}")
+    private long soldOutTtlMillis;
+
+    /**
+     * 优惠券id -> 售罄标记的过期时间
+     */
+    private final Map<Long, Long> soldOutUntil = new ConcurrentHashMap<>();
+
+    /**
+     * 优惠券id -> 补库存的次数，用于丢弃补库存之前执行的Lua脚本返回的过期售罄结果
+     */
+    private final Map<Long, Long> restockVersions = new ConcurrentHashMap<>();
+
+    public SeckillSoldOutCache(StringRedisTemplate stringRedisTemplate,
+                               RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this,
+                Arrays.asList(new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL), new ChannelTopic(SECKILL_RESTOCK_CHANNEL)));
+    }
+
+    /**
+     * 判断秒杀券是否已售罄
+     *
+     * @param voucherId
+     * @return
+     */
+    public boolean isSoldOut(Long voucherId) {
+        Long until = soldOutUntil.get(voucherId);
+        return until != null && until > System.currentTimeMillis();
+    }
+
+    /**
+     * 获取当前的补库存版本，需要在执行秒杀Lua脚本之前获取
+     *
+     * @param voucherId
+     * @return
+     */
+    public long version(Long voucherId) {
+        return restockVersions.getOrDefault(voucherId, 0L);
+    }
+
+    /**
+     * Lua脚本返回库存不足时设置本地售罄标记
+     * 如果脚本执行期间发生了补库存，则丢弃这次的售罄结果
+     *
+     * @param voucherId
+     * @param version   执行Lua脚本之前获取的补库存版本
+     */
+    public void markSoldOut(Long voucherId, long version) {
+        soldOutUntil.compute(voucherId, (id, until) ->
+                version(id) == version ? System.currentTimeMillis() + soldOutTtlMillis : until);
+    }
+
+    /**
+     * 补充库存后通知所有节点清除售罄标记
+     * 必须在Redis库存更新之后调用，这样各节点收到消息的顺序与Redis中库存变化的顺序一致
+     *
+     * @param voucherId
+     */
+    public void publishRestock(Long voucherId) {
+        stringRedisTemplate.convertAndSend(SECKILL_RESTOCK_CHANNEL, voucherId.toString());
+    }
+
+    /**
+     * 处理售罄、补库存消息
+     *
+     * @param message
+     * @param pattern
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        Long voucherId;
+        try {
+            voucherId = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            log.error("无效的秒杀券消息: {}", message);
+            return;
+        }
+        if (SECKILL_SOLD_OUT_CHANNEL.equals(channel)) {
+            soldOutUntil.put(voucherId, System.currentTimeMillis() + soldOutTtlMillis);
+        } else if (SECKILL_RESTOCK_CHANNEL.equals(channel)) {
+            // 先递增版本再清除标记，防止补库存之前执行的Lua脚本重新设置标记
+            restockVersions.merge(voucherId, 1L, Long::sum);
+            soldOutUntil.remove(voucherId);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.ReflectUtil;
+import com.hmdp.entity.Shop;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_HASH_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+
+/**
+ * 店铺的Hash缓存：cache:shop-hash:{id}，每个字段单独保存，启用后替代 cache:shop:{id} 的整体JSON
+ * 1、销量、评论数、评分等计数字段通过HINCRBY原地更新，不删除整个缓存
+ * 2、可以只读取需要的字段（HMGET）
+ * 3、更新店铺时只删除变化的字段，读取时只从数据库查询缺少的字段并补回，不重建整个缓存
+ * 字段值为字符串，空字符串表示数据库中为null；数据库中不存在的店铺缓存为只有 _null 字段的Hash
+ */
+@Component
+public class ShopHashCache {
+
+    /**
+     * 缓存的字段，与数据库的列一一对应（字段名转为下划线格式即为列名）
+     */
+    public static final List<String> FIELDS = Collections.unmodifiableList(Arrays.asList(
+            "id", "name", "typeId", "images", "area", "address", "x", "y", "avgPrice",
+            "sold", "comments", "score", "openHours", "createTime", "updateTime"));
+
+    /**
+     * 可以原地增加的计数字段
+     */
+    public static final Set<String> COUNTER_FIELDS =
+            Collections.unmodifiableSet(new HashSet<>(Arrays.asList("sold", "comments", "score")));
+
+    private static final String NULL_FIELD = "_null";
+
+    private static final String NULL_VALUE = "";
+
+    /**
+     * 字段名 -> 字段类型
+     */
+    private static final Map<String, Class<?>> FIELD_TYPES = new HashMap<>();
+    static {
+        for (String field : FIELDS) {
+            FIELD_TYPES.put(field, ReflectUtil.getField(Shop.class, field).getType());
+        }
+    }
+
+    private static final DefaultRedisScript<Long> INCR_SCRIPT;
+    static {
+        INCR_SCRIPT = new DefaultRedisScript<>();
+        INCR_SCRIPT.setLocation(new ClassPathResource("lua/hash-incr-if-exists.lua"));
+        INCR_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final DefaultRedisScript<Long> SET_SCRIPT;
+    static {
+        SET_SCRIPT = new DefaultRedisScript<>();
+        SET_SCRIPT.setLocation(new ClassPathResource("lua/hash-set-if-exists.lua"));
+        SET_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 是否使用Hash缓存店铺
+     */
+    @Value("${hmdp.cache.shop-hash.enabled:false}")
+    private boolean enabled;
+
+    public ShopHashCache(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 查询店铺的全部字段
+     *
+     * @param id
+     * @param dbFallback 根据id查询指定字段的函数
+     * @return 店铺不存在时返回null
+     */
+    public Shop get(Long id, BiFunction<Long, List<String>, Shop> dbFallback) {
+        String key = CACHE_SHOP_HASH_KEY + id;
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(key);
+        if (entries.isEmpty()) {
+            // 缓存未命中，查询全部字段并写入缓存
+            return load(key, id, dbFallback);
+        }
+        if (entries.containsKey(NULL_FIELD)) {
+            return null;
+        }
+        Map<String, String> values = new HashMap<>(entries.size() * 2);
+        entries.forEach((field, value) -> values.put((String) field, (String) value));
+        return fill(key, id, values, FIELDS, dbFallback);
+    }
+
+    /**
+     * 查询店铺的部分字段
+     *
+     * @param id
+     * @param fields     需要的字段，必须在 FIELDS 中
+     * @param dbFallback 根据id查询指定字段的函数
+     * @return 只填充了id和指定字段的店铺，店铺不存在时返回null
+     */
+    public Shop getFields(Long id, List<String> fields, BiFunction<Long, List<String>, Shop> dbFallback) {
+        String key = CACHE_SHOP_HASH_KEY + id;
+        // 同时查询id和空值标记，区分缓存未命中和字段缺失
+        List<Object> hashKeys = new ArrayList<>(fields.size() + 2);
+        hashKeys.add("id");
+        hashKeys.add(NULL_FIELD);
+        hashKeys.addAll(fields);
+        List<Object> result = stringRedisTemplate.opsForHash().multiGet(key, hashKeys);
+        if (result.get(1) != null) {
+            return null;
+        }
+        if (result.get(0) == null) {
+            // 缓存未命中，查询全部字段并写入缓存
+            Shop shop = load(key, id, dbFallback);
+            return shop == null ? null : copyFields(shop, fields);
+        }
+        Map<String, String> values = new HashMap<>(hashKeys.size() * 2);
+        for (int i = 0; i < hashKeys.size(); i++) {
+            if (result.get(i) != null) {
+                values.put((String) hashKeys.get(i), (String) result.get(i));
+            }
+        }
+        return fill(key, id, values, fields, dbFallback);
+    }
+
+    /**
+     * 计数字段原地增加，缓存中没有该字段时不处理，下次读取时从数据库查询
+     *
+     * @param id
+     * @param field COUNTER_FIELDS 中的字段
+     * @param delta
+     */
+    public void increment(Long id, String field, long delta) {
+        stringRedisTemplate.execute(INCR_SCRIPT, Collections.singletonList(CACHE_SHOP_HASH_KEY + id),
+                field, String.valueOf(delta));
+    }
+
+    /**
+     * 删除变化的字段，需要在数据库更新之后调用
+     *
+     * @param id
+     * @param fields
+     */
+    public void invalidateFields(Long id, Collection<String> fields) {
+        if (!fields.isEmpty()) {
+            stringRedisTemplate.opsForHash().delete(CACHE_SHOP_HASH_KEY + id, fields.toArray());
+        }
+    }
+
+    /**
+     * 店铺中不为null的字段，用于更新店铺时确定需要删除的字段
+     *
+     * @param shop
+     * @return
+     */
+    public static List<String> nonNullFields(Shop shop) {
+        List<String> fields = new ArrayList<>();
+        for (String field : FIELDS) {
+            if (!"id".equals(field) && BeanUtil.getFieldValue(shop, field) != null) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * 查询全部字段并写入缓存，不存在时缓存空值
+     */
+    private Shop load(String key, Long id, BiFunction<Long, List<String>, Shop> dbFallback) {
+        Shop shop = dbFallback.apply(id, FIELDS);
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        Map<byte[], byte[]> hash = new HashMap<>();
+        long millis;
+        if (shop == null) {
+            hash.put(NULL_FIELD.getBytes(StandardCharsets.UTF_8), "1".getBytes(StandardCharsets.UTF_8));
+            millis = TimeUnit.SECONDS.toMillis(CACHE_NULL_TTL);
+        } else {
+            encode(shop, FIELDS).forEach((field, value) ->
+                    hash.put(field.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8)));
+            millis = TimeUnit.MINUTES.toMillis(CACHE_SHOP_TTL);
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.del(rawKey);
+            connection.hMSet(rawKey, hash);
+            connection.pExpire(rawKey, millis);
+            return null;
+        });
+        return shop;
+    }
+
+    /**
+     * 缓存中缺少的字段（已失效）从数据库查询并补回，再转换为店铺
+     */
+    private Shop fill(String key, Long id, Map<String, String> values, List<String> fields,
+                      BiFunction<Long, List<String>, Shop> dbFallback) {
+        List<String> missing = new ArrayList<>();
+        for (String field : fields) {
+            if (!values.containsKey(field)) {
+                missing.add(field);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Shop partial = dbFallback.apply(id, missing);
+            if (partial == null) {
+                // 店铺已被删除
+                stringRedisTemplate.delete(key);
+                return null;
+            }
+            Map<String, String> loaded = encode(partial, missing);
+            List<String> args = new ArrayList<>(loaded.size() * 2);
+            loaded.forEach((field, value) -> {
+                args.add(field);
+                args.add(value);
+            });
+            stringRedisTemplate.execute(SET_SCRIPT, Collections.singletonList(key), args.toArray());
+            values.putAll(loaded);
+        }
+        return decode(values);
+    }
+
+    private static Map<String, String> encode(Shop shop, List<String> fields) {
+        Map<String, String> values = new LinkedHashMap<>(fields.size() * 2);
+        for (String field : fields) {
+            Object value = BeanUtil.getFieldValue(shop, field);
+            if (value == null) {
+                values.put(field, NULL_VALUE);
+            } else if (value instanceof LocalDateTime) {
+                values.put(field, DateTimeFormatter.ISO_LOCAL_DATE_TIME.format((LocalDateTime) value));
+            } else {
+                values.put(field, value.toString());
+            }
+        }
+        return values;
+    }
+
+    private static Shop decode(Map<String, String> values) {
+        Shop shop = new Shop();
+        values.forEach((field, value) -> {
+            Class<?> type = FIELD_TYPES.get(field);
+            if (type == null || NULL_VALUE.equals(value)) {
+                return;
+            }
+            Object v;
+            if (type == Long.class) {
+                v = Long.valueOf(value);
+            } else if (type == Integer.class) {
+                v = Integer.valueOf(value);
+            } else if (type == Double.class) {
+                v = Double.valueOf(value);
+            } else if (type == LocalDateTime.class) {
+                v = LocalDateTime.parse(value, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+            } else {
+                v = value;
+            }
+            BeanUtil.setFieldValue(shop, field, v);
+        });
+        return shop;
+    }
+
+    private static Shop copyFields(Shop shop, List<String> fields) {
+        Shop copy = new Shop();
+        copy.setId(shop.getId());
+        for (String field : fields) {
+            BeanUtil.setFieldValue(copy, field, BeanUtil.getFieldValue(shop, field));
+        }
+        return copy;
+    }
+}
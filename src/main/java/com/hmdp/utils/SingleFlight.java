@@ -0,0 +1,129 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 缓存未命中时合并同一个key的并发加载：同一个节点上每个key同时只有一个线程查询数据库，其它线程等待同一个结果
+ * redis模式下，加载的线程还会通过Redis互斥锁与其它节点合并，未获取到锁的节点等待持有锁的节点写入缓存
+ */
+@Component
+public class SingleFlight {
+
+    /**
+     * 合并方式，local：只在当前节点内合并；redis：同时在节点之间合并
+     */
+    @Value("${hmdp.cache.single-flight.mode:local}")
+    private String mode;
+
+    /**
+     * redis模式下，未获取到锁的节点等待其它节点写入缓存的最长时间，超时后自己查询数据库
+     */
+    @Value("${hmdp.cache.single-flight.redis-wait-millis:200}")
+    private long redisWaitMillis;
+
+    /**
+     * key -> 正在进行的加载
+     */
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 实际执行的加载次数
+     */
+    private final LongAdder loads = new LongAdder();
+
+    /**
+     * 等待当前节点其它线程的加载结果的次数
+     */
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * 等待其它节点加载的次数、等待期间其它节点已写入缓存的次数
+     */
+    private final LongAdder remoteWaits = new LongAdder();
+    private final LongAdder remoteHits = new LongAdder();
+
+    public boolean isRedisMode() {
+        return "redis".equalsIgnoreCase(mode);
+    }
+
+    public long getRedisWaitMillis() {
+        return redisWaitMillis;
+    }
+
+    /**
+     * 加载key对应的数据，同一个key已有线程在加载时等待其结果
+     *
+     * @param key
+     * @param loader 查询数据库并写入缓存
+     * @param <T>
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T load(String key, Supplier<T> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.increment();
+            try {
+                return (T) existing.join();
+            } catch (CompletionException e) {
+                // 抛出加载线程的原始异常
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+        loads.increment();
+        try {
+            T t = loader.get();
+            future.complete(t);
+            return t;
+        } catch (Throwable e) {
+            // Error也要通知等待的线程，否则它们会一直阻塞
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * 记录一次等待其它节点加载
+     *
+     * @param hit 等待期间其它节点是否已写入缓存
+     */
+    public void recordRemoteWait(boolean hit) {
+        remoteWaits.increment();
+        if (hit) {
+            remoteHits.increment();
+        }
+    }
+
+    /**
+     * 当前节点的合并统计
+     *
+     * @return
+     */
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("loads", loads.sum());
+        stats.put("coalesced", coalesced.sum());
+        stats.put("remoteWaits", remoteWaits.sum());
+        stats.put("remoteHits", remoteHits.sum());
+        stats.put("inFlight", (long) inFlight.size());
+        return stats;
+    }
+}
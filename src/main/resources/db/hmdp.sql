@@ -1274,7 +1274,9 @@ CREATE TABLE `tb_voucher_order`  (
   `use_time` timestamp NULL DEFAULT NULL COMMENT '核销时间',
   `refund_time` timestamp NULL DEFAULT NULL COMMENT '退款时间',
   `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
-  PRIMARY KEY (`id`) USING BTREE
+  `active` tinyint(1) GENERATED ALWAYS AS (IF(`status` = 4, NULL, 1)) VIRTUAL COMMENT '是否占用一人一单名额，已取消的订单为NULL，不参与唯一索引',
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE INDEX `uniq_user_voucher`(`user_id`, `voucher_id`, `active`) USING BTREE
 ) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
 
 -- ----------------------------
@@ -0,0 +1,12 @@
+-- 字段存在时原地增加计数，字段不存在（缓存已过期或该字段已失效）时不写入，避免写入不完整的计数
+-- Hash的key
+local key = KEYS[1];
+-- 字段名称
+local field = ARGV[1];
+-- 增量
+local delta = ARGV[2];
+
+if (redis.call('hexists', key, field) == 0) then
+    return nil
+end
+return redis.call('hincrby', key, field, delta)
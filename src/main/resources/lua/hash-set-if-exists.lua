@@ -0,0 +1,12 @@
+-- Hash存在时写入字段，Hash已过期时不写入，避免创建只有部分字段且没有有效期的Hash
+-- Hash的key
+local key = KEYS[1];
+
+if (redis.call('exists', key) == 0) then
+    return 0
+end
+-- ARGV为 字段1, 值1, 字段2, 值2 ...
+for i = 1, #ARGV, 2 do
+    redis.call('hset', key, ARGV[i], ARGV[i + 1])
+end
+return 1
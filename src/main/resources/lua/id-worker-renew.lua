@@ -0,0 +1,7 @@
+-- 续期workerId租约：只有租约仍属于当前节点时才续期
+-- KEYS[1]：workerId的key，ARGV[1]：当前节点标识，ARGV[2]：租约有效期（毫秒）
+if (redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('pexpire', KEYS[1], ARGV[2])
+end
+-- 租约已过期或被其它节点占用
+return 0
@@ -0,0 +1,15 @@
+---
+-- 取消超时未支付的订单：归还Redis库存，并从下单用户集合中删除用户，允许用户重新抢购
+-- KEYS[1]：超时队列的key，KEYS[2i]、KEYS[2i+1]：第i个订单的库存key和下单用户集合的key（与超时队列位于同一个分片）
+-- ARGV[i]：第i个订单在超时队列中的成员，格式为 订单id:用户id:优惠券id
+local delayKey = KEYS[1];
+local restored = 0;
+for i = 1, #ARGV do
+    if (redis.call('ZREM', delayKey, ARGV[i]) == 1) then
+        redis.call('INCRBY', KEYS[2 * i], 1);
+        local userId = string.match(ARGV[i], '^[^:]+:([^:]+):');
+        redis.call('SREM', KEYS[2 * i + 1], userId);
+        restored = restored + 1;
+    end
+end
+return restored;
@@ -0,0 +1,21 @@
+---
+-- 所有分片库存都不足，释放用户所属分片中占用的一人一单名额
+-- 订单key
+local orderKey = KEYS[1];
+-- 占用名额的记录的key
+local reserveKey = KEYS[2];
+-- 优惠券id
+local voucherId = ARGV[1];
+-- 用户id
+local userId = ARGV[2];
+-- 售罄通知的频道
+local soldOutChannel = ARGV[3];
+-- 占用名额的记录
+local reservation = ARGV[4];
+
+redis.call('SREM', orderKey, userId);
+redis.call('ZREM', reserveKey, reservation);
+-- 所有分片都已售罄，通知所有节点设置本地售罄标记
+redis.call('PUBLISH', soldOutChannel, voucherId);
+-- 返回1，表示库存不足
+return 1;
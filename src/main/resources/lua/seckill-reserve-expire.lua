@@ -0,0 +1,17 @@
+---
+-- 释放超时仍没有生成订单的一人一单名额（跨分片扣库存的过程中调用方宕机或Redis异常）
+-- 订单key
+local orderKey = KEYS[1];
+-- 占用名额的记录的key
+local reserveKey = KEYS[2];
+-- 占用名额的记录，格式为 订单id:用户id:优惠券id
+local reservation = ARGV[1];
+-- 用户id
+local userId = ARGV[2];
+
+-- 记录已被删除说明名额已经由调用方处理，不再释放
+if (redis.call('ZREM', reserveKey, reservation) == 0) then
+    return 0;
+end
+redis.call('SREM', orderKey, userId);
+return 1;
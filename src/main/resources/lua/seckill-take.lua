@@ -0,0 +1,24 @@
+---
+-- 到其它分片扣库存（一人一单的名额已经在用户所属的分片中占用）
+-- 库存的key
+local stockKey = KEYS[1];
+-- 订单消息队列的key
+local streamKey = KEYS[2];
+-- 优惠券id
+local voucherId = ARGV[1];
+-- 用户id
+local userId = ARGV[2];
+-- 订单id
+local orderId = ARGV[3];
+
+local stock = tonumber(redis.call('GET', stockKey));
+if (stock == nil or stock <= 0) then
+    -- 当前分片库存不足，返回1
+    return 1;
+end
+
+-- 扣库存、下单
+redis.call('INCRBY', stockKey, -1);
+redis.call('XADD', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId);
+-- 返回0，标识下单成功
+return 0;
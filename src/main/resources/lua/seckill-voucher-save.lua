@@ -0,0 +1,15 @@
+---
+-- 替换秒杀券元数据中的有效期，删除旧值和写入新值在同一个脚本中完成，秒杀脚本不会读到没有有效期的中间状态
+-- 同一个Hash中的限流配置保留
+-- KEYS[1]：秒杀券元数据的key
+-- ARGV[1]：开始时间（毫秒），空字符串表示不限制
+-- ARGV[2]：结束时间（毫秒），空字符串表示不限制
+local voucherKey = KEYS[1];
+redis.call('HDEL', voucherKey, 'begin', 'end');
+if (ARGV[1] ~= '') then
+    redis.call('HSET', voucherKey, 'begin', ARGV[1]);
+end
+if (ARGV[2] ~= '') then
+    redis.call('HSET', voucherKey, 'end', ARGV[2]);
+end
+return 1;
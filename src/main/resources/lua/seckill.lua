@@ -1,30 +1,144 @@
-
 ---
+-- 库存的key
+local stockKey = KEYS[1];
+-- 订单key
+local orderKey = KEYS[2];
+-- 订单消息队列的key
+local streamKey = KEYS[3];
+-- 秒杀券元数据的key
+local voucherKey = KEYS[4];
+-- 秒杀券令牌桶的key
+local voucherBucketKey = KEYS[5];
+-- 用户令牌桶的key
+local userBucketKey = KEYS[6];
+-- 跨分片扣库存时占用名额的记录（ZSET）的key
+local reserveKey = KEYS[7];
 -- 优惠券id
 local voucherId = ARGV[1];
 -- 用户id
 local userId = ARGV[2];
+-- 订单id
+local orderId = ARGV[3];
+-- 是否为分片库存（当前分片是用户所属的分片，库存不足时还可以到其它分片扣库存）
+local sharded = ARGV[4] == '1';
+-- 库存分片数量，秒杀券的限流速率平均分配到各个分片
+local shards = tonumber(ARGV[5]);
+-- 售罄通知的频道
+local soldOutChannel = ARGV[10];
 
--- 库存的key
-local stockKey = 'seckill:stock:' .. voucherId;
--- 订单key
-local orderKey = 'seckill:order:' .. voucherId;
+-- 当前时间（毫秒）取Redis服务器的时间，不受各个应用节点时钟偏差的影响
+-- Redis 5之前需要先开启按命令复制，才能在TIME之后执行写命令
+if (redis.replicate_commands ~= nil) then
+    redis.replicate_commands();
+end
+local time = redis.call('TIME');
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000);
+
+-- 令牌桶容量：小于等于0时等于rate，且至少能放行一个请求
+local function capacity(rate, burst)
+    if (burst <= 0) then
+        burst = rate;
+    end
+    return math.max(burst, 1);
+end
+
+-- 取令牌：按时间补充令牌后判断是否还有令牌，返回剩余令牌数量，令牌不足时返回nil
+-- rate：每秒生成的令牌数量，小于等于0表示不限流；burst：令牌桶容量
+local function take(bucketKey, rate, burst)
+    burst = capacity(rate, burst);
+    local bucket = redis.call('HMGET', bucketKey, 'tokens', 'ts');
+    local tokens = tonumber(bucket[1]);
+    local ts = tonumber(bucket[2]);
+    if (tokens == nil or ts == nil) then
+        tokens = burst;
+        ts = now;
+    end
+    tokens = math.min(burst, tokens + math.max(0, now - ts) * rate / 1000);
+    if (tokens < 1) then
+        return nil;
+    end
+    return tokens - 1;
+end
+
+-- 保存令牌桶，令牌桶装满后的数据没有意义，过期删除
+local function save(bucketKey, tokens, rate, burst)
+    burst = capacity(rate, burst);
+    redis.call('HMSET', bucketKey, 'tokens', tostring(tokens), 'ts', tostring(now));
+    redis.call('PEXPIRE', bucketKey, math.ceil(burst * 1000 / rate) + 1000);
+end
+
+-- 秒杀券元数据：有效期和限流配置（未配置限流时使用默认配置）
+local meta = redis.call('HMGET', voucherKey, 'begin', 'end', 'rate', 'burst', 'userRate', 'userBurst');
+local beginTime = tonumber(meta[1]);
+local endTime = tonumber(meta[2]);
+local rate = (tonumber(meta[3]) or tonumber(ARGV[6])) / shards;
+local burst = (tonumber(meta[4]) or tonumber(ARGV[7])) / shards;
+local userRate = tonumber(meta[5]) or tonumber(ARGV[8]);
+local userBurst = tonumber(meta[6]) or tonumber(ARGV[9]);
 
--- 判断库存是否充足 get stockKey > 0 ?
-local stock = redis.call('GET', stockKey);
-if (tonumber(stock) <= 0) then
+-- 判断秒杀是否在有效期内（元数据不存在时不校验）
+if (beginTime ~= nil and now < beginTime) then
+    -- 秒杀尚未开始，返回4
+    return 4;
+end
+if (endTime ~= nil and now > endTime) then
+    -- 秒杀已经结束，返回5
+    return 5;
+end
+
+-- 限流：秒杀券和用户的令牌桶都有令牌时才放行，两个令牌桶要么都扣令牌，要么都不扣
+local voucherTokens, userTokens;
+if (rate > 0) then
+    voucherTokens = take(voucherBucketKey, rate, burst);
+    if (voucherTokens == nil) then
+        -- 请求过多，返回6
+        return 6;
+    end
+end
+if (userRate > 0) then
+    userTokens = take(userBucketKey, userRate, userBurst);
+    if (userTokens == nil) then
+        return 6;
+    end
+end
+if (voucherTokens ~= nil) then
+    save(voucherBucketKey, voucherTokens, rate, burst);
+end
+if (userTokens ~= nil) then
+    save(userBucketKey, userTokens, userRate, userBurst);
+end
+
+-- 判断库存是否充足 get stockKey > 0 ?（库存未初始化时按0处理）
+local stock = tonumber(redis.call('GET', stockKey));
+if (stock == nil) then
+    stock = 0;
+end
+if (stock <= 0 and not sharded) then
     -- 库存不足，返回1
     return 1;
 end
 
--- 库存充足，判断用户是否已经下过单 SISMEMBER orderKey userId
+-- 判断用户是否已经下过单 SISMEMBER orderKey userId
 if (redis.call('SISMEMBER', orderKey, userId) == 1) then
     -- 用户已下单，返回2
     return 2;
 end
 
+if (stock <= 0) then
+    -- 当前分片库存不足，先占用一人一单的名额，再到其它分片扣库存，返回3
+    -- 同时记录占用的名额，调用方在扣库存或释放名额之前宕机时，由对账任务释放没有生成订单的名额
+    redis.call('SADD', orderKey, userId);
+    redis.call('ZADD', reserveKey, now, orderId .. ':' .. userId .. ':' .. voucherId);
+    return 3;
+end
+
 -- 库存充足，没有下过单，扣库存、下单
-redis.call('INCRBY', stockKey, -1);
+if (redis.call('INCRBY', stockKey, -1) == 0 and not sharded) then
+    -- 最后一件库存被抢完，通知所有节点设置本地售罄标记
+    redis.call('PUBLISH', soldOutChannel, voucherId);
+end
 redis.call('SADD', orderKey, userId);
+-- 将订单写入消息队列，与扣库存在同一个脚本中完成，保证已接受的订单不会丢失 XADD stream.orders * k1 v1 k2 v2 ...
+redis.call('XADD', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId);
 -- 返回0，标识下单成功
 return 0;
@@ -0,0 +1,11 @@
+---
+-- 从指定游标开始增量扫描Set（SSCAN），由调用方保存返回的游标，下次从该游标继续扫描
+-- Set的key
+local setKey = KEYS[1];
+-- 游标，0表示从头开始
+local cursor = ARGV[1];
+-- 单次扫描的数量（近似值）
+local count = ARGV[2];
+
+-- 返回 {下一次的游标, {成员列表}}，游标为0表示已经扫描完一轮
+return redis.call('SSCAN', setKey, cursor, 'COUNT', count);
@@ -0,0 +1,25 @@
+---
+-- 将其它消费者长时间未确认的消息转移到当前消费者的pending-list中（用于接管宕机节点的订单）
+-- 消息队列的key
+local streamKey = KEYS[1];
+-- 消费者组名称
+local group = ARGV[1];
+-- 当前消费者名称
+local consumer = ARGV[2];
+-- 消息最小空闲时间（毫秒），超过该时间未确认才认为原消费者已失效
+local minIdle = tonumber(ARGV[3]);
+-- 单次最多检查的消息数量
+local count = ARGV[4];
+
+-- XPENDING key group - + count，返回 {id, consumer, idle, deliveries} 列表
+local pending = redis.call('XPENDING', streamKey, group, '-', '+', count);
+local claimed = 0;
+for _, entry in ipairs(pending) do
+    if (entry[2] ~= consumer and tonumber(entry[3]) >= minIdle) then
+        -- XCLAIM 会再次校验空闲时间，避免与其它节点重复接管
+        local ids = redis.call('XCLAIM', streamKey, group, consumer, minIdle, entry[1], 'JUSTID');
+        claimed = claimed + #ids;
+    end
+end
+-- 返回接管的消息数量
+return claimed;
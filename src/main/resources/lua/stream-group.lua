@@ -0,0 +1,17 @@
+---
+-- 创建消费者组（Stream不存在时一并创建），消费者组已存在时直接忽略
+-- 消息队列的key
+local streamKey = KEYS[1];
+-- 消费者组名称
+local group = ARGV[1];
+
+local ok, err = pcall(redis.call, 'XGROUP', 'CREATE', streamKey, group, '0', 'MKSTREAM');
+if (ok) then
+    -- 返回1表示新建了消费者组
+    return 1;
+end
+if (string.find(tostring(err), 'BUSYGROUP') ~= nil) then
+    -- 消费者组已存在，返回0
+    return 0;
+end
+return redis.error_reply(tostring(err));
@@ -0,0 +1,34 @@
+package com.hmdp;
+
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+
+/**
+ * 压测使用的内嵌Redis，同一个JVM中的所有压测共用一个实例（Spring容器也是共用的），JVM退出时关闭
+ * 端口与 application-benchmark.yaml 一致
+ */
+final class BenchmarkRedis {
+
+    static final int PORT = 6390;
+
+    private static RedisServer redisServer;
+
+    private BenchmarkRedis() {
+    }
+
+    static synchronized void start() throws IOException {
+        if (redisServer != null) {
+            return;
+        }
+        redisServer = new RedisServer(PORT);
+        redisServer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                redisServer.stop();
+            } catch (IOException ignored) {
+                // JVM正在退出
+            }
+        }));
+    }
+}
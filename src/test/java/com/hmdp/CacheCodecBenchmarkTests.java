@@ -0,0 +1,166 @@
+package com.hmdp;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.CacheCodecs;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.RedisData;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 缓存编码方式压测：Shop的编码、解码耗时和编码后的字节数
+ * 分别压测普通数据（handleCachePenetration）和逻辑过期数据（handleCacheBreakdown），
+ * 逻辑过期数据同时对比原来 RedisData 嵌套JSON的解析方式
+ * 运行方式：mvn test -Pbenchmark -Dbench.label=$(git rev-parse --short HEAD)，结果追加写入 bench_output.txt
+ */
+@Tag("benchmark")
+class CacheCodecBenchmarkTests {
+
+    private static final int WARMUP = 50_000;
+
+    private static final int ITERATIONS = 200_000;
+
+    private static final String OUTPUT_FILE = "bench_output.txt";
+
+    /**
+     * 防止JIT消除没有使用结果的调用
+     */
+    private static long sink;
+
+    @Test
+    void testCodecs() throws IOException {
+        Shop shop = shop();
+        JsonCacheCodec json = new JsonCacheCodec();
+        CacheCodec[] codecs = {json, new BinaryCacheCodec(json)};
+        try (PrintWriter out = new PrintWriter(new FileWriter(OUTPUT_FILE, true))) {
+            for (CacheCodec codec : codecs) {
+                byte[] bytes = codec.encode(shop);
+                assertEquals(shop, codec.decode(bytes, 0, Shop.class));
+                run(codec.name(), WARMUP, codec, shop);
+                String line = run(codec.name(), ITERATIONS, codec, shop);
+                System.out.println(line);
+                out.println(line);
+            }
+            for (CacheCodec codec : codecs) {
+                CacheCodecs cacheCodecs = new CacheCodecs(codec.name());
+                runLogical(codec.name(), WARMUP, cacheCodecs, shop);
+                String line = runLogical(codec.name(), ITERATIONS, cacheCodecs, shop);
+                System.out.println(line);
+                out.println(line);
+            }
+            runLegacyLogical(WARMUP, shop);
+            String line = runLegacyLogical(ITERATIONS, shop);
+            System.out.println(line);
+            out.println(line);
+        }
+    }
+
+    /**
+     * 被截断的二进制数据解码为null，不抛出异常
+     */
+    @Test
+    void testTruncatedBinary() {
+        BinaryCacheCodec codec = new BinaryCacheCodec(new JsonCacheCodec());
+        byte[] bytes = codec.encode(shop());
+        for (int length = 0; length < bytes.length; length++) {
+            assertNull(codec.decode(Arrays.copyOf(bytes, length), 0, Shop.class));
+        }
+    }
+
+    private String run(String name, int iterations, CacheCodec codec, Shop shop) {
+        byte[] bytes = null;
+        long begin = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            bytes = codec.encode(shop);
+            sink += bytes.length;
+        }
+        long encodeNanos = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += codec.decode(bytes, 0, Shop.class).getSold();
+        }
+        long decodeNanos = System.nanoTime() - begin;
+        return format(name, "plain", bytes.length, encodeNanos / iterations, decodeNanos / iterations);
+    }
+
+    private String runLogical(String name, int iterations, CacheCodecs cacheCodecs, Shop shop) {
+        long expireMillis = System.currentTimeMillis() + 60_000;
+        byte[] bytes = null;
+        long begin = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            bytes = cacheCodecs.encodeLogical(shop, expireMillis);
+            sink += bytes.length;
+        }
+        long encodeNanos = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += cacheCodecs.decodeLogical(bytes, Shop.class).getData().getSold();
+        }
+        long decodeNanos = System.nanoTime() - begin;
+        return format(name, "logical", bytes.length, encodeNanos / iterations, decodeNanos / iterations);
+    }
+
+    /**
+     * 原来的方式：RedisData整体转JSON，解析时先解析RedisData，再将JSONObject转为Shop
+     */
+    private String runLegacyLogical(int iterations, Shop shop) {
+        byte[] bytes = null;
+        long begin = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            RedisData redisData = new RedisData();
+            redisData.setData(shop);
+            redisData.setExpireTime(LocalDateTime.now().plusSeconds(60));
+            bytes = JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+            sink += bytes.length;
+        }
+        long encodeNanos = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            RedisData redisData = JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), RedisData.class);
+            Shop decoded = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
+            sink += decoded.getSold() + redisData.getExpireTime().getNano();
+        }
+        long decodeNanos = System.nanoTime() - begin;
+        return format("redis-data-json", "logical", bytes.length, encodeNanos / iterations, decodeNanos / iterations);
+    }
+
+    private static String format(String codec, String kind, int bytes, long encodeNanos, long decodeNanos) {
+        return String.format("%s label=%s codec=%s entry=%s bytes=%d encode=%dns decode=%dns",
+                LocalDateTime.now(), System.getProperty("bench.label", "-"), codec, kind, bytes,
+                encodeNanos, decodeNanos);
+    }
+
+    private static Shop shop() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        shop.setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+        shop.setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+        return shop;
+    }
+}
@@ -14,12 +14,16 @@ import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 @SpringBootTest
 class HmDianPingApplicationTests {
@@ -34,16 +38,31 @@ class HmDianPingApplicationTests {
 
     /**
      * 测试分布式ID生成器的性能，以及可用性
+     * 分别测试 redis模式（每个ID一次INCR）、segment模式（按号段租用序列号）和 snowflake模式（本地生成）
      */
     @Test
     public void testNextId() throws InterruptedException {
+        testNextId("redis", new RedisIdWorker(stringRedisTemplate, "redis", 1000, 0.2, 30000, 5));
+        testNextId("segment", new RedisIdWorker(stringRedisTemplate, "segment", 1000, 0.2, 30000, 5));
+        testNextId("snowflake", new RedisIdWorker(stringRedisTemplate, "snowflake", 1000, 0.2, 30000, 5));
+    }
+
+    private void testNextId(String mode, RedisIdWorker idWorker) throws InterruptedException {
         // 使用CountDownLatch让线程同步等待
         CountDownLatch latch = new CountDownLatch(300); // 300个线程
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        AtomicInteger disordered = new AtomicInteger();
         // 创建线程任务
         Runnable task = () -> {
+            long last = 0;
             for (int i = 0; i < 100; i++) {
-                long id = redisIdWorker.nextId("order");
-                System.out.println("id = " + id);
+                long id = idWorker.nextId("order");
+                // 同一个线程内ID单调递增
+                if (id <= last) {
+                    disordered.incrementAndGet();
+                }
+                last = id;
+                ids.add(id);
             }
             // 等待次数-1
             latch.countDown();
@@ -56,7 +75,9 @@ class HmDianPingApplicationTests {
         // 线程阻塞，直到计数器归0时才全部唤醒所有线程
         latch.await(); // 等待所有线程执行完毕
         long end = System.currentTimeMillis();
-        System.out.println("生成3w个id共耗时" + (end - begin) + "ms");
+        System.out.println(mode + "模式生成3w个id共耗时" + (end - begin) + "ms");
+        assertEquals(30000, ids.size());
+        assertEquals(0, disordered.get());
     }
     /**
      * 预热店铺数据
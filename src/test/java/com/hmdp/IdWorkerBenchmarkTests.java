@@ -0,0 +1,144 @@
+package com.hmdp;
+
+import com.hmdp.utils.RedisIdWorker;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.annotation.Resource;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 全局ID生成器压测：redis（每个ID一次INCR）、segment（号段租用）、snowflake（本地生成，租用workerId）
+ * 固定线程数和ID数量，校验生成的ID全部不重复
+ * 运行方式：mvn test -Pbenchmark -Dbench.label=$(git rev-parse --short HEAD)，结果追加写入 bench_output.txt
+ */
+@Tag("benchmark")
+@ActiveProfiles("benchmark")
+@SpringBootTest
+class IdWorkerBenchmarkTests {
+
+    private static final int THREADS = 16;
+
+    private static final int IDS_PER_THREAD = 20_000;
+
+    private static final String OUTPUT_FILE = "bench_output.txt";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        BenchmarkRedis.start();
+    }
+
+    @Test
+    void testIdWorkerModes() throws Exception {
+        String[] modes = {"redis", "segment", "snowflake"};
+        // 第一轮预热，不记录结果
+        for (boolean record : new boolean[]{false, true}) {
+            for (String mode : modes) {
+                RedisIdWorker idWorker = new RedisIdWorker(stringRedisTemplate, mode, 1000, 0.2, 30000, 5);
+                String line = runRound(mode, idWorker);
+                System.out.println(line);
+                if (record) {
+                    try (PrintWriter out = new PrintWriter(new FileWriter(OUTPUT_FILE, true))) {
+                        out.println(line);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 不同模式生成的ID范围不相交：redis、segment模式的ID没有模式标记，snowflake模式的ID都有模式标记，
+     * 切换模式后新生成的ID不会与历史订单的主键重复
+     */
+    @Test
+    void testIdModesDisjoint() {
+        String[] modes = {"redis", "segment", "snowflake"};
+        int count = 10_000;
+        long[] ids = new long[modes.length * count];
+        for (int m = 0; m < modes.length; m++) {
+            RedisIdWorker idWorker = new RedisIdWorker(stringRedisTemplate, modes[m], 1000, 0.2, 30000, 5);
+            boolean snowflake = "snowflake".equals(modes[m]);
+            for (int i = 0; i < count; i++) {
+                long id = idWorker.nextId("disjoint");
+                assertTrue(id > 0, modes[m]);
+                assertEquals(snowflake, (id & RedisIdWorker.SNOWFLAKE_FLAG) != 0, modes[m]);
+                ids[m * count + i] = id;
+            }
+        }
+        // redis、segment模式共用同一个Redis计数器，三种模式的ID都不重复
+        Arrays.sort(ids);
+        for (int i = 1; i < ids.length; i++) {
+            assertTrue(ids[i] != ids[i - 1]);
+        }
+        // redis、segment模式在秒级时间戳用到2^30之前生成的最大ID仍小于模式标记
+        assertTrue((((1L << 30) - 1) << 32 | 0xFFFFFFFFL) < RedisIdWorker.SNOWFLAKE_FLAG);
+    }
+
+    private String runRound(String mode, RedisIdWorker idWorker) throws InterruptedException {
+        long[] ids = new long[THREADS * IDS_PER_THREAD];
+        AtomicInteger disordered = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREADS);
+        ExecutorService es = Executors.newFixedThreadPool(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            int offset = t * IDS_PER_THREAD;
+            es.submit(() -> {
+                try {
+                    start.await();
+                    long last = 0;
+                    for (int i = 0; i < IDS_PER_THREAD; i++) {
+                        long id = idWorker.nextId("bench");
+                        // 同一个线程内ID单调递增
+                        if (id <= last) {
+                            disordered.incrementAndGet();
+                        }
+                        last = id;
+                        ids[offset + i] = id;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        es.shutdown();
+
+        // 所有ID不重复
+        Arrays.sort(ids);
+        int duplicates = 0;
+        for (int i = 1; i < ids.length; i++) {
+            if (ids[i] == ids[i - 1]) {
+                duplicates++;
+            }
+        }
+        assertEquals(0, duplicates);
+        assertEquals(0, disordered.get());
+
+        return String.format("%s label=%s idMode=%s threads=%d ids=%d throughput=%.0f/s",
+                LocalDateTime.now(), System.getProperty("bench.label", "-"), mode, THREADS, ids.length,
+                ids.length * 1e9 / elapsed);
+    }
+}
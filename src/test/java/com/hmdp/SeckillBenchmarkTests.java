@@ -0,0 +1,229 @@
+package com.hmdp;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.annotation.Resource;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 秒杀下单全链路压测：内嵌Redis + 内嵌H2，直接调用 IVoucherOrderService.seckillVoucher
+ * 运行方式：mvn test -Pbenchmark -Dbench.label=$(git rev-parse --short HEAD)
+ * 用户数、请求数、并发线程数、库存和请求顺序（固定随机种子）都是固定的，不同提交之间的结果可以直接对比
+ * 每轮结果追加写入 bench_output.txt：吞吐量、p50/p99/p999延迟、超卖数量、重复订单数量
+ */
+@Tag("benchmark")
+@ActiveProfiles("benchmark")
+@SpringBootTest
+class SeckillBenchmarkTests {
+
+    private static final int USERS = 5000;
+
+    /**
+     * 每个用户发起的请求数量，大于1时同时压测一人一单的校验
+     */
+    private static final int REQUESTS_PER_USER = 2;
+
+    private static final int THREADS = 200;
+
+    private static final int STOCK = 1000;
+
+    /**
+     * 压测轮数，第一轮用于预热JVM和连接池，不记录结果
+     */
+    private static final int ROUNDS = 4;
+
+    private static final long SEED = 20211222L;
+
+    /**
+     * 等待消费线程将订单全部落库的最长时间
+     */
+    private static final long DRAIN_TIMEOUT_MILLIS = 60_000;
+
+    private static final String OUTPUT_FILE = "bench_output.txt";
+
+    @Resource
+    private IVoucherService voucherService;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        BenchmarkRedis.start();
+    }
+
+    @Test
+    void testSeckillVoucher() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            BenchResult result = runRound(round);
+            String line = result.format(round == 0 ? "warmup" : "round" + round);
+            System.out.println(line);
+            if (round > 0) {
+                try (PrintWriter out = new PrintWriter(new FileWriter(OUTPUT_FILE, true))) {
+                    out.println(line);
+                }
+            }
+            // 不超卖、不少卖、没有重复订单
+            assertEquals(0, result.oversold);
+            assertEquals(0, result.duplicates);
+            assertEquals(STOCK, result.success);
+            assertEquals(STOCK, result.orders);
+        }
+    }
+
+    private BenchResult runRound(int round) throws InterruptedException {
+        // 1、每轮使用一张新的秒杀券，互不影响
+        Voucher voucher = new Voucher();
+        voucher.setShopId(1L);
+        voucher.setTitle("压测秒杀券" + round);
+        voucher.setPayValue(100L);
+        voucher.setActualValue(1000L);
+        voucher.setType(1);
+        voucher.setStatus(1);
+        voucher.setStock(STOCK);
+        voucher.setBeginTime(LocalDateTime.now().minusHours(1));
+        voucher.setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        Long voucherId = voucher.getId();
+
+        // 2、生成请求：每个用户请求多次，按固定随机种子打乱顺序
+        long firstUserId = (round + 1) * 1_000_000L;
+        List<Long> requests = new ArrayList<>(USERS * REQUESTS_PER_USER);
+        for (int i = 0; i < USERS; i++) {
+            for (int j = 0; j < REQUESTS_PER_USER; j++) {
+                requests.add(firstUserId + i);
+            }
+        }
+        Collections.shuffle(requests, new Random(SEED));
+
+        // 3、所有线程同时开始，依次领取请求并记录每次请求的耗时
+        long[] latencies = new long[requests.size()];
+        AtomicInteger next = new AtomicInteger();
+        LongAdder success = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(THREADS);
+        ExecutorService es = Executors.newFixedThreadPool(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            es.submit(() -> {
+                try {
+                    start.await();
+                    int i;
+                    while ((i = next.getAndIncrement()) < latencies.length) {
+                        UserDTO user = new UserDTO();
+                        user.setId(requests.get(i));
+                        UserHolder.saveUser(user);
+                        long begin = System.nanoTime();
+                        try {
+                            Result result = voucherOrderService.seckillVoucher(voucherId);
+                            if (Boolean.TRUE.equals(result.getSuccess())) {
+                                success.increment();
+                            }
+                        } catch (Exception ignored) {
+                            // 异常请求只记录耗时
+                        } finally {
+                            latencies[i] = System.nanoTime() - begin;
+                            UserHolder.removeUser();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        es.shutdown();
+
+        // 4、等待消费线程将已接受的订单全部落库
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        int orders = countOrders(voucherId);
+        while (orders < success.sum() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+            orders = countOrders(voucherId);
+        }
+
+        // 5、统计结果
+        List<VoucherOrder> created = voucherOrderService.list(new LambdaQueryWrapper<VoucherOrder>()
+                .select(VoucherOrder::getUserId)
+                .eq(VoucherOrder::getVoucherId, voucherId));
+        long distinctUsers = created.stream().map(VoucherOrder::getUserId).distinct().count();
+        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+
+        BenchResult result = new BenchResult();
+        result.requests = latencies.length;
+        result.success = success.sum();
+        result.orders = created.size();
+        result.elapsedNanos = elapsed;
+        Arrays.sort(latencies);
+        result.p50 = percentile(latencies, 0.50);
+        result.p99 = percentile(latencies, 0.99);
+        result.p999 = percentile(latencies, 0.999);
+        result.oversold = Math.max(0, created.size() - STOCK) + Math.max(0, -seckillVoucher.getStock());
+        result.duplicates = created.size() - distinctUsers;
+        return result;
+    }
+
+    private int countOrders(Long voucherId) {
+        return voucherOrderService.count(new LambdaQueryWrapper<VoucherOrder>()
+                .eq(VoucherOrder::getVoucherId, voucherId));
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.min(Math.max(index, 0), sorted.length - 1)];
+    }
+
+    private static class BenchResult {
+        private long requests;
+        private long success;
+        private long orders;
+        private long elapsedNanos;
+        private long p50;
+        private long p99;
+        private long p999;
+        private long oversold;
+        private long duplicates;
+
+        private String format(String round) {
+            return String.format("%s label=%s %s users=%d requests=%d threads=%d stock=%d success=%d orders=%d "
+                            + "throughput=%.0f/s p50=%.3fms p99=%.3fms p999=%.3fms oversold=%d duplicates=%d",
+                    LocalDateTime.now(), System.getProperty("bench.label", "-"), round, USERS, requests, THREADS,
+                    STOCK, success, orders, requests * 1e9 / elapsedNanos,
+                    p50 / 1e6, p99 / 1e6, p999 / 1e6, oversold, duplicates);
+        }
+    }
+}
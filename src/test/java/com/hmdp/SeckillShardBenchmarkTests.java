@@ -0,0 +1,133 @@
+package com.hmdp;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.utils.SeckillClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 分片库存压测：对比不同分片数量下秒杀脚本的吞吐量
+ * 单机Redis只有一个执行线程，分片只能把热点key打散，吞吐量基本不变；
+ * 要看到吞吐量随分片数量增长，需要连接一个专用于压测的Redis Cluster：
+ * -Dbench.redis.cluster=127.0.0.1:7000,127.0.0.1:7001,127.0.0.1:7002
+ * 也可以通过 -Dbench.redis.host 连接单机Redis，都没有指定时启动一个内嵌Redis
+ */
+@Tag("benchmark")
+class SeckillShardBenchmarkTests {
+
+    private static final int THREADS = 300;
+
+    private static final int REQUESTS_PER_THREAD = 100;
+
+    /**
+     * 压测专用的秒杀券id，不会与真实数据冲突
+     */
+    private static final long BENCH_VOUCHER_ID = 900_000_000L;
+
+    private static final int EMBEDDED_REDIS_PORT = 6391;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private RedisServer redisServer;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        String cluster = System.getProperty("bench.redis.cluster");
+        if (StrUtil.isNotBlank(cluster)) {
+            connectionFactory = new LettuceConnectionFactory(new RedisClusterConfiguration(StrUtil.split(cluster, ',')));
+        } else if (System.getProperty("bench.redis.host") == null) {
+            redisServer = new RedisServer(EMBEDDED_REDIS_PORT);
+            redisServer.start();
+            connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", EMBEDDED_REDIS_PORT));
+        } else {
+            // 单机模式使用15号库，与应用数据隔离
+            RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(
+                    System.getProperty("bench.redis.host", "localhost"), Integer.getInteger("bench.redis.port", 6379));
+            config.setPassword(System.getProperty("bench.redis.password", "123456"));
+            config.setDatabase(15);
+            connectionFactory = new LettuceConnectionFactory(config);
+        }
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        connectionFactory.destroy();
+        if (redisServer != null) {
+            redisServer.stop();
+        }
+    }
+
+    /**
+     * 分别使用1、2、4、8个分片，300个线程共发起3w次秒杀请求，库存为请求数的一半
+     * 压测同时覆盖 扣本分片库存、本分片耗尽后到其它分片扣库存、全部售罄 三种情况
+     */
+    @Test
+    void testSeckillShardThroughput() throws InterruptedException {
+        int total = THREADS * REQUESTS_PER_THREAD;
+        int stock = total / 2;
+        for (int shards : new int[]{1, 2, 4, 8}) {
+            SeckillClient seckillClient = new SeckillClient(stringRedisTemplate, shards, 0, 0, 0, 0);
+            long voucherId = BENCH_VOUCHER_ID + shards;
+            clear(seckillClient, voucherId);
+            seckillClient.setStock(voucherId, stock);
+
+            ExecutorService es = Executors.newFixedThreadPool(THREADS);
+            CountDownLatch latch = new CountDownLatch(THREADS);
+            AtomicLong orderId = new AtomicLong();
+            LongAdder success = new LongAdder();
+            long begin = System.currentTimeMillis();
+            for (int t = 0; t < THREADS; t++) {
+                long firstUserId = (long) t * REQUESTS_PER_THREAD + 1;
+                es.submit(() -> {
+                    try {
+                        for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                            if (seckillClient.seckill(voucherId, firstUserId + i, orderId.incrementAndGet()) == 0L) {
+                                success.increment();
+                            }
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+            latch.await();
+            long cost = Math.max(System.currentTimeMillis() - begin, 1);
+            es.shutdown();
+            System.out.println("分片数=" + shards + "，请求" + total + "次，成功" + success.sum() + "单，耗时"
+                    + cost + "ms，吞吐量" + total * 1000L / cost + "次/秒");
+            // 不超卖也不少卖
+            assertEquals(stock, success.sum());
+            clear(seckillClient, voucherId);
+        }
+    }
+
+    private void clear(SeckillClient seckillClient, long voucherId) {
+        for (int i = 0; i < seckillClient.getShards(); i++) {
+            stringRedisTemplate.delete(seckillClient.stockKey(voucherId, i));
+            stringRedisTemplate.delete(seckillClient.orderKey(voucherId, i));
+        }
+        for (String streamKey : seckillClient.streamKeys()) {
+            stringRedisTemplate.delete(streamKey);
+        }
+    }
+}
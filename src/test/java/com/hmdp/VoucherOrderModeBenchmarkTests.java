@@ -0,0 +1,247 @@
+package com.hmdp;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.annotation.Resource;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 订单落库方式压测：lock（分布式锁 + 查询是否已下单）与 unique（唯一索引 + INSERT IGNORE）
+ * 模拟分区消费线程：订单按userId哈希分给固定线程，分别压测逐单落库和批量落库，其中10%为同一用户的重复订单
+ * 运行方式：mvn test -Pbenchmark -Dbench.label=$(git rev-parse --short HEAD)，结果追加写入 bench_output.txt
+ */
+@Tag("benchmark")
+@ActiveProfiles("benchmark")
+@SpringBootTest
+class VoucherOrderModeBenchmarkTests {
+
+    private static final int USERS = 5000;
+
+    /**
+     * 重复订单（同一用户、不同订单id）的比例
+     */
+    private static final double DUPLICATE_RATE = 0.1;
+
+    /**
+     * 模拟的分区线程数量
+     */
+    private static final int PARTITIONS = 4;
+
+    private static final int BATCH_SIZE = 100;
+
+    private static final long SEED = 20211222L;
+
+    private static final String OUTPUT_FILE = "bench_output.txt";
+
+    @Resource
+    private IVoucherService voucherService;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        BenchmarkRedis.start();
+    }
+
+    @Test
+    void testOrderModes() throws Exception {
+        // 业务对象（没有事务代理），用于切换落库方式和调用逐单落库方法
+        Object target = AopTestUtils.getUltimateTargetObject(voucherOrderService);
+        Object originalMode = ReflectionTestUtils.getField(target, "orderMode");
+        String[] modes = {"lock", "unique"};
+        try {
+            int round = 0;
+            // 第一轮预热，不记录结果
+            for (boolean record : new boolean[]{false, true}) {
+                for (boolean batch : new boolean[]{false, true}) {
+                    for (String mode : modes) {
+                        ReflectionTestUtils.setField(target, "orderMode", mode);
+                        String line = runRound(target, mode, batch, ++round);
+                        System.out.println(line);
+                        if (record) {
+                            try (PrintWriter out = new PrintWriter(new FileWriter(OUTPUT_FILE, true))) {
+                                out.println(line);
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            ReflectionTestUtils.setField(target, "orderMode", originalMode);
+        }
+    }
+
+    /**
+     * 超时取消的订单不再占用一人一单的名额：两种落库方式下，逐单和批量落库都可以重新下单，未取消的订单仍然拒绝重复下单
+     */
+    @Test
+    void testRebuyAfterCancel() {
+        Object target = AopTestUtils.getUltimateTargetObject(voucherOrderService);
+        Object originalMode = ReflectionTestUtils.getField(target, "orderMode");
+        long nextOrderId = 900_000_000_000L;
+        long userId = 900_000_000L;
+        try {
+            for (String mode : new String[]{"lock", "unique"}) {
+                ReflectionTestUtils.setField(target, "orderMode", mode);
+                for (boolean batch : new boolean[]{false, true}) {
+                    Long voucherId = addVoucher("取消后重新下单" + mode + batch, 2);
+                    userId++;
+                    // 1、第一单创建后超时取消，库存归还
+                    VoucherOrder first = order(++nextOrderId, userId, voucherId);
+                    create(target, mode, batch, first);
+                    assertEquals(Collections.singleton(first.getId()),
+                            voucherOrderService.cancelVoucherOrders(Collections.singletonList(first.getId())));
+                    assertEquals(2, seckillVoucherService.getById(voucherId).getStock().intValue());
+                    // 2、同一用户重新下单成功
+                    create(target, mode, batch, order(++nextOrderId, userId, voucherId));
+                    // 3、已有未取消的订单，再次下单被拒绝
+                    create(target, mode, batch, order(++nextOrderId, userId, voucherId));
+                    List<VoucherOrder> orders = voucherOrderService.list(new LambdaQueryWrapper<VoucherOrder>()
+                            .eq(VoucherOrder::getVoucherId, voucherId)
+                            .orderByAsc(VoucherOrder::getId));
+                    assertEquals(2, orders.size(), mode);
+                    assertEquals(4, orders.get(0).getStatus().intValue(), mode);
+                    assertEquals(1, orders.get(1).getStatus().intValue(), mode);
+                    assertEquals(1, seckillVoucherService.getById(voucherId).getStock().intValue(), mode);
+                }
+            }
+        } finally {
+            ReflectionTestUtils.setField(target, "orderMode", originalMode);
+        }
+    }
+
+    private void create(Object target, String mode, boolean batch, VoucherOrder order) {
+        if (!batch) {
+            ReflectionTestUtils.invokeMethod(target, "handleVoucherOrder", order);
+            return;
+        }
+        List<VoucherOrder> orders = Collections.singletonList(order);
+        if ("unique".equals(mode)) {
+            voucherOrderService.createVoucherOrdersUnique(orders);
+        } else {
+            voucherOrderService.createVoucherOrders(orders);
+        }
+    }
+
+    private static VoucherOrder order(long id, long userId, Long voucherId) {
+        VoucherOrder order = new VoucherOrder();
+        order.setId(id);
+        order.setUserId(userId);
+        order.setVoucherId(voucherId);
+        return order;
+    }
+
+    private Long addVoucher(String title, int stock) {
+        Voucher voucher = new Voucher();
+        voucher.setShopId(1L);
+        voucher.setTitle(title);
+        voucher.setPayValue(100L);
+        voucher.setActualValue(1000L);
+        voucher.setType(1);
+        voucher.setStatus(1);
+        voucher.setStock(stock);
+        voucher.setBeginTime(LocalDateTime.now().minusHours(1));
+        voucher.setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        return voucher.getId();
+    }
+
+    private String runRound(Object target, String mode, boolean batch, int round) throws InterruptedException {
+        // 1、每轮使用一张新的秒杀券，库存足够所有用户下单
+        Long voucherId = addVoucher("落库压测秒杀券" + round, USERS);
+
+        // 2、生成订单，按userId哈希分给各个分区线程
+        Random random = new Random(SEED);
+        long firstUserId = round * 1_000_000L;
+        long nextOrderId = round * 1_000_000_000L;
+        List<List<VoucherOrder>> partitions = new ArrayList<>(PARTITIONS);
+        for (int p = 0; p < PARTITIONS; p++) {
+            partitions.add(new ArrayList<>());
+        }
+        int total = 0;
+        for (int i = 0; i < USERS; i++) {
+            long userId = firstUserId + i;
+            int copies = random.nextDouble() < DUPLICATE_RATE ? 2 : 1;
+            for (int c = 0; c < copies; c++) {
+                VoucherOrder order = new VoucherOrder();
+                order.setId(++nextOrderId);
+                order.setUserId(userId);
+                order.setVoucherId(voucherId);
+                partitions.get(Math.floorMod(Long.hashCode(userId), PARTITIONS)).add(order);
+                total++;
+            }
+        }
+
+        // 3、各个分区线程同时开始落库
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(PARTITIONS);
+        ExecutorService es = Executors.newFixedThreadPool(PARTITIONS);
+        for (List<VoucherOrder> orders : partitions) {
+            es.submit(() -> {
+                try {
+                    start.await();
+                    if (batch) {
+                        for (int from = 0; from < orders.size(); from += BATCH_SIZE) {
+                            List<VoucherOrder> chunk = orders.subList(from, Math.min(from + BATCH_SIZE, orders.size()));
+                            if ("unique".equals(mode)) {
+                                voucherOrderService.createVoucherOrdersUnique(chunk);
+                            } else {
+                                voucherOrderService.createVoucherOrders(chunk);
+                            }
+                        }
+                    } else {
+                        for (VoucherOrder order : orders) {
+                            ReflectionTestUtils.invokeMethod(target, "handleVoucherOrder", order);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        es.shutdown();
+
+        // 4、每个用户恰好一单，库存恰好扣减用户数
+        int orders = voucherOrderService.count(new LambdaQueryWrapper<VoucherOrder>()
+                .eq(VoucherOrder::getVoucherId, voucherId));
+        int stock = seckillVoucherService.getById(voucherId).getStock();
+        assertEquals(USERS, orders);
+        assertEquals(0, stock);
+
+        return String.format("%s label=%s orderMode=%s %s partitions=%d orders=%d users=%d throughput=%.0f/s",
+                LocalDateTime.now(), System.getProperty("bench.label", "-"), mode,
+                batch ? "batch=" + BATCH_SIZE : "single", PARTITIONS, total, USERS, total * 1e9 / elapsed);
+    }
+}
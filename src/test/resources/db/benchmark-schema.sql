@@ -0,0 +1,44 @@
+-- 压测使用的表结构，只包含秒杀下单涉及的表，字段与 db/hmdp.sql 一致
+DROP TABLE IF EXISTS `tb_voucher`;
+CREATE TABLE `tb_voucher` (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT,
+  `shop_id` bigint(20) NULL DEFAULT NULL,
+  `title` varchar(255) NOT NULL,
+  `sub_title` varchar(255) NULL DEFAULT NULL,
+  `rules` varchar(1024) NULL DEFAULT NULL,
+  `pay_value` bigint(10) NOT NULL,
+  `actual_value` bigint(10) NOT NULL,
+  `type` tinyint(1) NOT NULL DEFAULT 0,
+  `status` tinyint(1) NOT NULL DEFAULT 1,
+  `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`id`)
+);
+
+DROP TABLE IF EXISTS `tb_seckill_voucher`;
+CREATE TABLE `tb_seckill_voucher` (
+  `voucher_id` bigint(20) NOT NULL,
+  `stock` int(8) NOT NULL,
+  `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `begin_time` timestamp NULL DEFAULT NULL,
+  `end_time` timestamp NULL DEFAULT NULL,
+  `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (`voucher_id`)
+);
+
+DROP TABLE IF EXISTS `tb_voucher_order`;
+CREATE TABLE `tb_voucher_order` (
+  `id` bigint(20) NOT NULL,
+  `user_id` bigint(20) NOT NULL,
+  `voucher_id` bigint(20) NOT NULL,
+  `pay_type` tinyint(1) NOT NULL DEFAULT 1,
+  `status` tinyint(1) NOT NULL DEFAULT 1,
+  `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `pay_time` timestamp NULL DEFAULT NULL,
+  `use_time` timestamp NULL DEFAULT NULL,
+  `refund_time` timestamp NULL DEFAULT NULL,
+  `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  `active` tinyint(1) AS (CASE WHEN `status` = 4 THEN NULL ELSE 1 END),
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `uniq_user_voucher` (`user_id`, `voucher_id`, `active`)
+);